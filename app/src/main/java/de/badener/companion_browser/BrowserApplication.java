@@ -0,0 +1,45 @@
+package de.badener.companion_browser;
+
+import android.app.Application;
+import android.content.Context;
+import android.webkit.CookieManager;
+
+import de.badener.companion_browser.utils.AdBlocking;
+import de.badener.companion_browser.utils.Favicons;
+import de.badener.companion_browser.utils.SessionStore;
+import de.badener.companion_browser.utils.SiteCache;
+import de.badener.companion_browser.utils.StartupTrace;
+
+public class BrowserApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Start loading the ad blocking index, the first requests of a page wait for it
+        AdBlocking.init(this);
+        // Shared preferences are read from disk on their own thread, start that before the window needs them
+        getSharedPreferences(MainActivity.class.getSimpleName(), Context.MODE_PRIVATE);
+        // Read the last session, the window restores it before loading anything
+        SessionStore.preload(this);
+        SiteCache.init(this);
+        Favicons.init(this);
+        warmUpWebView();
+        StartupTrace.markProcess(StartupTrace.APPLICATION_CREATED);
+    }
+
+    // Load the WebView provider while the window is created, so that inflating
+    // the WebView does not have to load it on the main thread
+    private void warmUpWebView() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CookieManager.getInstance();
+                    StartupTrace.markProcess(StartupTrace.WEBVIEW_WARMED);
+                } catch (RuntimeException ignored) {
+                    // WebView is missing or being updated, creating the window reports that
+                }
+            }
+        }, "WebViewWarmUp").start();
+    }
+}
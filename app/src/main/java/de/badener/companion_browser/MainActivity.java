@@ -2,44 +2,51 @@ package de.badener.companion_browser;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
-import android.app.DownloadManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.Formatter;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.webkit.CookieManager;
 import android.webkit.DownloadListener;
-import android.webkit.MimeTypeMap;
 import android.webkit.URLUtil;
+import android.webkit.ValueCallback;
 import android.webkit.WebChromeClient;
 import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
+import android.webkit.WebSettings;
 import android.webkit.WebStorage;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.ListPopupWindow;
 import androidx.appcompat.widget.PopupMenu;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -52,17 +59,53 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
+import de.badener.companion_browser.blocking.DataSaver;
+import de.badener.companion_browser.blocking.InterceptionPipeline;
+import de.badener.companion_browser.blocking.NavigationStats;
+import de.badener.companion_browser.blocking.RequestTrace;
+import de.badener.companion_browser.blocking.ResourceType;
+import de.badener.companion_browser.blocking.SiteLoadTimes;
+import de.badener.companion_browser.blocking.SiteProfiles;
+import de.badener.companion_browser.blocking.UrlHosts;
 import de.badener.companion_browser.utils.AdBlocking;
+import de.badener.companion_browser.utils.DataSaving;
+import de.badener.companion_browser.utils.DefaultApps;
+import de.badener.companion_browser.utils.Downloads;
+import de.badener.companion_browser.utils.Favicons;
+import de.badener.companion_browser.utils.History;
+import de.badener.companion_browser.utils.HistoryEntry;
+import de.badener.companion_browser.utils.OfflinePages;
+import de.badener.companion_browser.utils.Preconnector;
+import de.badener.companion_browser.utils.RequestTraces;
+import de.badener.companion_browser.utils.SessionStore;
+import de.badener.companion_browser.utils.SiteCache;
+import de.badener.companion_browser.utils.SiteSettings;
+import de.badener.companion_browser.utils.StartupTrace;
+import de.badener.companion_browser.utils.Statistics;
+import de.badener.companion_browser.utils.Tab;
+import de.badener.companion_browser.utils.TabManager;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String startPage = "https://www.google.com/";
+    // Time a request may wait for ad blocking to become ready before it is allowed
+    private static final long adBlockingTimeoutMillis = 500;
+    private final InterceptionPipeline interceptionPipeline =
+            new InterceptionPipeline(AdBlocking.getEngine(), DataSaving.get(), adBlockingTimeoutMillis);
+    // Tabs beyond this are discarded and restored when they are shown again
+    private static final int maxLiveTabs = 3;
+    private static final int maxSuggestions = 5;
+    private static final long sessionSaveIntervalMillis = 30000;
+    // Disk space for pages saved for offline reading, the least recently used are removed beyond it
+    private static final long offlinePagesBudgetBytes = 100 * 1024 * 1024;
 
+    private FrameLayout webViewContainer;
+    // WebView of the current tab
     private WebView webView;
     private FrameLayout bottomBarContainer;
     private ImageButton webViewControlButton;
@@ -77,20 +120,30 @@ public class MainActivity extends AppCompatActivity {
     private SharedPreferences.Editor editor;
 
     private String snackbarText;
-    private String shortcutTitle;
-    private IconCompat shortcutIcon;
 
     private boolean isDefaultAppAvailable;
     private boolean isAdBlockingEnabled;
     private boolean isFullScreen;
+    private boolean isFirstDrawDone;
+    private boolean isDefaultAppCheckPending;
+    private boolean isSessionChanged;
+    private StartupTrace startupTrace;
+    private TabManager tabManager;
+    private DefaultApps defaultApps;
+    private History history;
+    private ArrayAdapter<HistoryEntry> suggestionsAdapter;
+    private ListPopupWindow suggestionsPopup;
+    private Preconnector preconnector;
+    private OfflinePages offlinePages;
 
-    @SuppressLint("SetJavaScriptEnabled")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        startupTrace = StartupTrace.begin();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        startupTrace.mark(StartupTrace.CONTENT_VIEW_SET);
 
-        webView = findViewById(R.id.webView);
+        webViewContainer = findViewById(R.id.webViewContainer);
         bottomBarContainer = findViewById(R.id.bottomBarContainer);
         webViewControlButton = findViewById(R.id.webViewControlButton);
         openDefaultAppButton = findViewById(R.id.openDefaultAppButton);
@@ -100,22 +153,14 @@ public class MainActivity extends AppCompatActivity {
         progressBar = findViewById(R.id.progressBar);
         fullScreen = findViewById(R.id.fullScreenContainer);
 
-        // Change WebView settings
-        webView.getSettings().setJavaScriptEnabled(true);
-        webView.getSettings().setAppCacheEnabled(true);
-        webView.getSettings().setDatabaseEnabled(true);
-        webView.getSettings().setDomStorageEnabled(true);
-        webView.getSettings().setGeolocationEnabled(false);
-        webView.getSettings().setUseWideViewPort(true);
-        webView.getSettings().setLoadWithOverviewMode(true);
-        webView.getSettings().setBuiltInZoomControls(true);
-        webView.getSettings().setDisplayZoomControls(false);
-        webView.getSettings().setAppCachePath(getApplicationContext().getCacheDir().getAbsolutePath());
-
-        // Initialize ad blocking
-        AdBlocking.init(this);
+        // Ad blocking is loaded by the application, the preferences were read there as well
         sharedPreferences = getPreferences(Context.MODE_PRIVATE);
         isAdBlockingEnabled = sharedPreferences.getBoolean("ad_blocking", true);
+        Statistics.setEnabled(sharedPreferences.getBoolean("statistics", false));
+        DataSaving.load(sharedPreferences);
+        SiteSettings.load(sharedPreferences);
+        RequestTraces.load(sharedPreferences);
+        SiteCache.loadSites(sharedPreferences);
 
         // Handle "WebView control button" in the search field
         webViewControlButton.setOnClickListener(new View.OnClickListener() {
@@ -147,7 +192,10 @@ public class MainActivity extends AppCompatActivity {
                     openDefaultAppButton.setVisibility(View.GONE);
                     clearSearchTextButton.setVisibility(View.VISIBLE);
                     menuButton.setVisibility(View.GONE);
+                    preconnector.onSearchOpened();
                 } else {
+                    suggestionsPopup.dismiss();
+                    preconnector.onSearchClosed();
                     webViewControlButton.setVisibility(View.VISIBLE);
                     if (isDefaultAppAvailable) openDefaultAppButton.setVisibility(View.VISIBLE);
                     searchTextInput.setText(webView.getUrl());
@@ -165,29 +213,75 @@ public class MainActivity extends AppCompatActivity {
                     if (Objects.requireNonNull(searchTextInput.getText()).toString().trim().isEmpty()) {
                         searchTextInput.setText(webView.getUrl());
                     } else {
-                        String input = searchTextInput.getText().toString().trim();
-                        String url;
-                        if (URLUtil.isValidUrl(input)) {
-                            // Input is a valid URL
-                            url = input;
-                        } else if (input.contains(" ") || !input.contains(".")) {
-                            // Input is obviously no URL, start Google search
-                            url = "https://www.google.com/search?q=" + input;
-                        } else {
-                            // Try to guess URL
-                            url = URLUtil.guessUrl(input);
-                        }
-                        webView.loadUrl(url);
+                        String url = toUrl(searchTextInput.getText().toString().trim());
+                        preconnector.onNavigate(url);
+                        loadUrl(url);
                     }
-                    searchTextInput.clearFocus();
-                    InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
-                    Objects.requireNonNull(imm).toggleSoftInput(InputMethodManager.HIDE_IMPLICIT_ONLY, 0);
+                    closeSearch();
                     return true;
                 }
                 return false;
             }
         });
 
+        // Suggest visited pages while typing and warm up the connection to the likely target
+        history = new History(this);
+        preconnector = new Preconnector(this);
+        offlinePages = new OfflinePages(this, offlinePagesBudgetBytes);
+        final int suggestionIconSize = Math.round(24 * getResources().getDisplayMetrics().density);
+        suggestionsAdapter = new ArrayAdapter<HistoryEntry>(this, android.R.layout.simple_list_item_2,
+                android.R.id.text1) {
+            @NonNull
+            @Override
+            public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+                View view = super.getView(position, convertView, parent);
+                HistoryEntry entry = Objects.requireNonNull(getItem(position));
+                TextView title = view.findViewById(android.R.id.text1);
+                TextView url = view.findViewById(android.R.id.text2);
+                title.setText(entry.getTitle() != null ? entry.getTitle() : entry.getUrl());
+                url.setText(entry.getUrl());
+                // Icons of sites visited since the start, the disk cache is not read for this
+                Bitmap icon = Favicons.getCached(Uri.parse(entry.getUrl()).getHost());
+                Drawable drawable = null;
+                if (icon != null) {
+                    drawable = new BitmapDrawable(getResources(), icon);
+                    drawable.setBounds(0, 0, suggestionIconSize, suggestionIconSize);
+                }
+                title.setCompoundDrawablesRelative(drawable, null, null, null);
+                title.setCompoundDrawablePadding(suggestionIconSize / 2);
+                return view;
+            }
+        };
+        suggestionsPopup = new ListPopupWindow(this);
+        suggestionsPopup.setAnchorView(bottomBarContainer);
+        suggestionsPopup.setAdapter(suggestionsAdapter);
+        suggestionsPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        suggestionsPopup.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
+                HistoryEntry entry = suggestionsAdapter.getItem(i);
+                if (entry != null) {
+                    preconnector.onNavigate(entry.getUrl());
+                    loadUrl(entry.getUrl());
+                }
+                closeSearch();
+            }
+        });
+        searchTextInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int i, int i1, int i2) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                if (searchTextInput.hasFocus()) showSuggestions(editable.toString().trim());
+            }
+        });
+
         // Handle "clear search text button" in the search field
         clearSearchTextButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -204,55 +298,122 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // Look up default apps off the main thread, the results are kept until apps change
+        defaultApps = new DefaultApps(this, new Runnable() {
+            @Override
+            public void run() {
+                if (isFirstDrawDone) checkDefaultApps();
+            }
+        });
+        defaultApps.register();
+
+        // Tabs share this window, only the most recently used ones keep their WebView
+        tabManager = new TabManager(maxLiveTabs, new TabManager.WebViewFactory() {
+            @Override
+            public WebView createWebView(Tab tab) {
+                return MainActivity.this.createWebView(tab);
+            }
+        });
+
+        // Restore the tabs of the last session from their saved state, without loading them again
+        SessionStore.Session session = SessionStore.load(this);
+        Tab restoredTab = null;
+        if (session != null) {
+            for (int i = 0; i < session.tabs.size(); i++) {
+                SessionStore.SavedTab savedTab = session.tabs.get(i);
+                Tab tab = tabManager.restore(savedTab.url, savedTab.title, savedTab.state);
+                if (i == session.currentIndex) restoredTab = tab;
+            }
+        }
+
+        // Handle intents
+        Intent intent = getIntent();
+        Uri uri = intent.getData();
+        if (uri != null) {
+            // Load the URL provided by an intent
+            showTab(tabManager.open(uri.toString()));
+        } else if (restoredTab != null) {
+            showTab(restoredTab);
+        } else {
+            showTab(tabManager.open(startPage));
+        }
+        deferUntilFirstDraw();
+    }
+
+    // Create the WebView of a tab, its callbacks only update the bottom bar while the tab is shown
+    @SuppressLint("SetJavaScriptEnabled")
+    private WebView createWebView(final Tab tab) {
+        WebView newWebView = new WebView(this);
+        newWebView.setFocusable(true);
+        newWebView.setFocusableInTouchMode(true);
+
+        // Change WebView settings
+        WebSettings webSettings = newWebView.getSettings();
+        webSettings.setJavaScriptEnabled(true);
+        webSettings.setDatabaseEnabled(true);
+        webSettings.setDomStorageEnabled(true);
+        webSettings.setGeolocationEnabled(false);
+        webSettings.setUseWideViewPort(true);
+        webSettings.setLoadWithOverviewMode(true);
+        webSettings.setBuiltInZoomControls(true);
+        webSettings.setDisplayZoomControls(false);
+
         // Handle downloads
-        webView.setDownloadListener(new DownloadListener() {
+        newWebView.setDownloadListener(new DownloadListener() {
             @Override
             public void onDownloadStart(String url, String userAgent, String contentDisposition,
                                         String mimetype, long contentLength) {
                 // Check if storage permission is granted and start download if applicable
                 if (isStoragePermissionGranted()) {
-                    DownloadManager.Request request = new DownloadManager.Request(Uri.parse(url));
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
-                        request.allowScanningByMediaScanner();
+                    try {
+                        Downloads.start(MainActivity.this, url, userAgent, contentDisposition, mimetype);
+                        snackbarText = getString(R.string.download_started);
+                    } catch (IOException e) {
+                        snackbarText = getString(R.string.download_failed);
                     }
-                    request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-                    String fileName = URLUtil.guessFileName(url, contentDisposition, mimetype);
-                    request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, fileName);
-                    request.setMimeType(MimeTypeMap.getSingleton().
-                            getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(url)));
-                    DownloadManager downloadManager = (DownloadManager) getSystemService(DOWNLOAD_SERVICE);
-                    Objects.requireNonNull(downloadManager).enqueue(request);
-                    snackbarText = getString(R.string.download_started);
                     showSnackbar();
                 }
             }
         });
 
-        // Handle intents
-        Intent intent = getIntent();
-        Uri uri = intent.getData();
-        String url;
-        url = (uri != null ? uri.toString() : startPage);
-        // Load either the start page or the URL provided by an intent
-        webView.loadUrl(url);
-
-        webView.setWebChromeClient(new WebChromeClient() {
+        newWebView.setWebChromeClient(new WebChromeClient() {
 
             // Update the progress bar and other ui elements according to WebView progress
             @Override
             public void onProgressChanged(WebView view, int newProgress) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    progressBar.setProgress(newProgress, true);
-                } else {
-                    progressBar.setProgress(newProgress);
-                }
-                if (newProgress < 100) {
-                    progressBar.setVisibility(View.VISIBLE);
-                    webViewControlButton.setImageDrawable(getDrawable(R.drawable.ic_cancel));
-                } else {
-                    progressBar.setVisibility(View.GONE);
-                    webViewControlButton.setImageDrawable(getDrawable(R.drawable.ic_reload));
+                if (newProgress == 100) {
+                    long started = tab.getPageStartNanos();
+                    if (started != 0) {
+                        tab.setPageStartNanos(0);
+                        SiteSettings.getLoadTimes().record(tab.getPageHost(),
+                                SiteProfiles.isLite(tab.getSiteProfile()), System.nanoTime() - started);
+                    }
+                    NavigationStats stats = tab.getNavigationStats();
+                    if (stats != null) stats.finish(AdBlocking.getVerdictCache());
+                    RequestTrace trace = tab.getRequestTrace();
+                    if (trace != null) {
+                        tab.setRequestTrace(null);
+                        RequestTraces.save(MainActivity.this, trace);
+                    }
                 }
+                if (view != webView) return;
+                showProgress(newProgress, true);
+                if (newProgress == 100) startupTrace.mark(StartupTrace.PAGE_LOADED);
+            }
+
+            // Titles usually arrive after the page has been added to the history
+            @Override
+            public void onReceivedTitle(WebView view, String title) {
+                history.recordTitle(view.getUrl(), title);
+                super.onReceivedTitle(view, title);
+            }
+
+            // Keep the site icon for shortcuts and lists
+            @Override
+            public void onReceivedIcon(WebView view, Bitmap icon) {
+                String url = view.getUrl();
+                if (url != null) Favicons.put(Uri.parse(url).getHost(), icon);
+                super.onReceivedIcon(view, icon);
             }
 
             // Enter fullscreen
@@ -289,35 +450,78 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        webView.setWebViewClient(new WebViewClient() {
-
-            // Ad blocking feature
-            private final Map<String, Boolean> loadedUrls = new HashMap<>();
+        newWebView.setWebViewClient(new WebViewClient() {
 
+            // Ad blocking and data saver
             @Override
             public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
-                boolean ad;
+                NavigationStats stats = tab.getNavigationStats();
+                DataSaver.Savings savings = tab.getDataSaverSavings();
+                RequestTrace trace = tab.getRequestTrace();
+                int blocking = getBlocking(tab);
+                // Nothing to decide and nothing cached, WebView loads the request itself
+                if (blocking == SiteProfiles.BLOCKING_OFF && savings == null && trace == null
+                        && !SiteCache.isCached(tab.getPageHost())) {
+                    if (stats != null) stats.recordRequest(false, -1);
+                    return super.shouldInterceptRequest(view, request);
+                }
+                long start = System.nanoTime();
                 String url = request.getUrl().toString();
-                if (isAdBlockingEnabled) {
-                    if (!loadedUrls.containsKey(url)) {
-                        ad = AdBlocking.isAd(url);
-                        loadedUrls.put(url, ad);
-                    } else {
-                        ad = loadedUrls.get(url);
-                    }
-                    return (ad ? AdBlocking.createEmptyResource() : super.shouldInterceptRequest(view, request));
+                boolean isMainFrame = request.isForMainFrame();
+                int type = ResourceType.guess(url, request.getRequestHeaders().get("Accept"), isMainFrame);
+                String documentHost = (isMainFrame ? request.getUrl().getHost() : tab.getPageHost());
+                int decision = interceptionPipeline.decide(url, type, isMainFrame, documentHost, blocking, savings,
+                        stats);
+                if (trace != null) {
+                    trace.record(start, System.nanoTime() - start, type, isMainFrame, documentHost, url);
+                }
+                if (decision != InterceptionPipeline.ALLOW) {
+                    return AdBlocking.createBlockedResource(type);
+                }
+                WebResourceResponse cached = SiteCache.get(request, tab.getPageHost(), type);
+                if (cached != null) {
+                    return cached;
                 }
                 return super.shouldInterceptRequest(view, request);
             }
 
+            // Remember the host of the page for the ad blocking filter rules
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                tab.setPageHost(Uri.parse(url).getHost());
+                applySiteProfile(view, tab, url);
+                tab.setPageStartNanos(System.nanoTime());
+                tab.setDataSaverSavings(DataSaving.isEnabled() ? new DataSaver.Savings() : null);
+                // Navigations not started by loadUrl, like following a link
+                NavigationStats stats = tab.getNavigationStats();
+                if (Statistics.isEnabled() && (stats == null || stats.isFinished())) startNavigationStats(tab, url);
+                if (RequestTraces.isEnabled() && tab.getRequestTrace() == null) tab.setRequestTrace(new RequestTrace());
+                injectCosmeticFilters(view, tab);
+                super.onPageStarted(view, url, favicon);
+            }
+
             // Update the URL displayed in the bottom bar and check for default apps
             @Override
             public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
-                if (!searchTextInput.hasFocus()) searchTextInput.setText(webView.getUrl());
-                checkDefaultApps();
+                if (!isReload) history.recordVisit(url, view.getTitle());
+                isSessionChanged = true;
+                if (view == webView) updateBottomBar();
                 super.doUpdateVisitedHistory(view, url, isReload);
             }
 
+            // The page has been drawn for the first time
+            @Override
+            public void onPageCommitVisible(WebView view, String url) {
+                if (view == webView) startupTrace.mark(StartupTrace.FIRST_PAINT);
+                // The document did not exist yet when the page started
+                String cosmeticScript = tab.getCosmeticScript();
+                if (cosmeticScript != null) {
+                    tab.setCosmeticScript(null);
+                    view.evaluateJavascript(cosmeticScript, null);
+                }
+                super.onPageCommitVisible(view, url);
+            }
+
             // Handle external links
             @Override
             public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
@@ -335,9 +539,270 @@ public class MainActivity extends AppCompatActivity {
                     }
                     return true;
                 }
+                // Settings changed before the page starts apply to it from the beginning
+                if (request.isForMainFrame()) applySiteProfile(view, tab, url);
                 return false;
             }
         });
+        return newWebView;
+    }
+
+    // Setup that is not needed for the first frame runs after it has been drawn
+    private void deferUntilFirstDraw() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the frame that is about to be drawn is done
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startupTrace.mark(StartupTrace.FIRST_DRAW);
+                        isFirstDrawDone = true;
+                        AdBlocking.startFilterListUpdates(MainActivity.this);
+                        if (isDefaultAppCheckPending) {
+                            isDefaultAppCheckPending = false;
+                            checkDefaultApps();
+                        }
+                        startupTrace.mark(StartupTrace.DEFERRED_INIT_DONE);
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    // Classify the input of the search field as URL or search
+    private static String toUrl(String input) {
+        if (URLUtil.isValidUrl(input)) {
+            // Input is a valid URL
+            return input;
+        } else if (input.contains(" ") || !input.contains(".")) {
+            // Input is obviously no URL, start Google search
+            return "https://www.google.com/search?q=" + input;
+        } else {
+            // Try to guess URL
+            return URLUtil.guessUrl(input);
+        }
+    }
+
+    // Show the best matching visited pages above the bottom bar and preconnect to the
+    // typed URL, else to the best suggestion or else to the page the input would load
+    private void showSuggestions(String input) {
+        if (input.isEmpty()) {
+            suggestionsPopup.dismiss();
+            return;
+        }
+        List<HistoryEntry> suggestions = history.suggest(input, maxSuggestions);
+        preconnector.onInput(URLUtil.isValidUrl(input) || suggestions.isEmpty() ?
+                toUrl(input) : suggestions.get(0).getUrl());
+        suggestionsAdapter.clear();
+        suggestionsAdapter.addAll(suggestions);
+        if (suggestions.isEmpty()) {
+            suggestionsPopup.dismiss();
+        } else {
+            suggestionsPopup.show();
+        }
+    }
+
+    // Leave the search field and hide the keyboard
+    private void closeSearch() {
+        searchTextInput.clearFocus();
+        InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
+        Objects.requireNonNull(imm).toggleSoftInput(InputMethodManager.HIDE_IMPLICIT_ONLY, 0);
+    }
+
+    // Show the tab in place of the current one, its WebView is restored if it was discarded
+    private void showTab(Tab tab) {
+        if (webView != null) webView.onPause();
+        webViewContainer.removeAllViews();
+        boolean isRestored = tabManager.select(tab);
+        isSessionChanged = true;
+        webView = tab.getWebView();
+        webViewContainer.addView(webView, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        webView.onResume();
+        if (!isRestored) loadUrl(tab.getUrl());
+        showProgress(webView.getProgress(), false);
+        updateBottomBar();
+    }
+
+    // Close the current tab and show the one used before, the window is closed with its last tab
+    private void closeTab() {
+        Tab previous = tabManager.getPreviousTab();
+        tabManager.close(tabManager.getCurrentTab());
+        webView = null;
+        isSessionChanged = true;
+        if (previous != null) {
+            showTab(previous);
+        } else {
+            // The next start begins with the start page
+            SessionStore.delete(this);
+            isSessionChanged = false;
+            finishAndRemoveTask();
+        }
+    }
+
+    // List the open tabs, the current one is checked
+    private void showTabs() {
+        final List<Tab> tabs = new ArrayList<>(tabManager.getTabs());
+        String[] titles = new String[tabs.size()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = tabs.get(i).getTitle();
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(R.string.action_tabs)
+                .setSingleChoiceItems(titles, tabs.indexOf(tabManager.getCurrentTab()),
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int i) {
+                                if (tabs.get(i) != tabManager.getCurrentTab()) showTab(tabs.get(i));
+                                dialogInterface.dismiss();
+                            }
+                        })
+                .setPositiveButton(R.string.action_new_tab, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        showTab(tabManager.open(startPage));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // List the pages saved for offline reading, the selected one can be opened or deleted
+    private void showSavedPages() {
+        final List<OfflinePages.Page> pages = offlinePages.getPages();
+        if (pages.isEmpty()) {
+            snackbarText = getString(R.string.saved_pages_empty);
+            showSnackbar();
+            return;
+        }
+        String[] titles = new String[pages.size()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = pages.get(i).getTitle();
+        }
+        final int[] selected = {0};
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(R.string.action_saved_pages)
+                .setSingleChoiceItems(titles, 0, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        selected[0] = i;
+                    }
+                })
+                .setPositiveButton(R.string.saved_pages_open, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        String url = offlinePages.open(pages.get(selected[0]));
+                        if (url != null) loadUrl(url);
+                    }
+                })
+                .setNeutralButton(R.string.saved_pages_delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        offlinePages.delete(pages.get(selected[0]));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // Update the progress bar and the WebView control button
+    private void showProgress(int progress, boolean isAnimated) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            progressBar.setProgress(progress, isAnimated);
+        } else {
+            progressBar.setProgress(progress);
+        }
+        if (progress < 100) {
+            progressBar.setVisibility(View.VISIBLE);
+            webViewControlButton.setImageDrawable(getDrawable(R.drawable.ic_cancel));
+        } else {
+            progressBar.setVisibility(View.GONE);
+            webViewControlButton.setImageDrawable(getDrawable(R.drawable.ic_reload));
+        }
+    }
+
+    // Update the URL displayed in the bottom bar and check for default apps
+    private void updateBottomBar() {
+        if (!searchTextInput.hasFocus()) searchTextInput.setText(tabManager.getCurrentTab().getUrl());
+        // Querying the package manager waits until the first frame has been drawn
+        if (isFirstDrawDone) {
+            checkDefaultApps();
+        } else {
+            isDefaultAppCheckPending = true;
+        }
+    }
+
+    // Load a URL in the current tab and start recording its statistics
+    private void loadUrl(String url) {
+        startNavigationStats(tabManager.getCurrentTab(), url);
+        tabManager.getCurrentTab().setRequestTrace(RequestTraces.isEnabled() ? new RequestTrace() : null);
+        applySiteProfile(webView, tabManager.getCurrentTab(), url);
+        webView.loadUrl(url);
+    }
+
+    // Switch JavaScript and storage for the site before its page runs, called again when it starts
+    private void applySiteProfile(WebView view, Tab tab, String url) {
+        long host = UrlHosts.find(url);
+        int profile = (host != UrlHosts.NO_HOST
+                ? SiteSettings.getProfile(url, UrlHosts.start(host), UrlHosts.end(host)) : SiteProfiles.DEFAULT);
+        tab.setSiteProfile(profile);
+        WebSettings webSettings = view.getSettings();
+        webSettings.setJavaScriptEnabled(SiteProfiles.isJavaScriptEnabled(profile));
+        webSettings.setDomStorageEnabled(SiteProfiles.isStorageEnabled(profile));
+        webSettings.setDatabaseEnabled(SiteProfiles.isStorageEnabled(profile));
+    }
+
+    // The blocking level on the site of the tab, sites without their own level follow the switch
+    private int getBlocking(Tab tab) {
+        int blocking = SiteProfiles.getBlocking(tab.getSiteProfile());
+        if (blocking == SiteProfiles.BLOCKING_DEFAULT && !isAdBlockingEnabled) return SiteProfiles.BLOCKING_OFF;
+        return blocking;
+    }
+
+    // Hide ad elements as early as possible, before the page has been laid out with them
+    private void injectCosmeticFilters(WebView view, final Tab tab) {
+        if (getBlocking(tab) == SiteProfiles.BLOCKING_OFF) {
+            tab.setCosmeticScript(null);
+            return;
+        }
+        long start = System.nanoTime();
+        final String script = AdBlocking.createCosmeticScript(tab.getPageHost());
+        NavigationStats stats = tab.getNavigationStats();
+        if (stats != null) stats.recordCosmeticFilters(System.nanoTime() - start, (script != null ? script.length() : 0));
+        tab.setCosmeticScript(script);
+        if (script == null) return;
+        view.evaluateJavascript(script, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String isInjected) {
+                if ("true".equals(isInjected) && tab.getCosmeticScript() == script) tab.setCosmeticScript(null);
+            }
+        });
+    }
+
+    private void startNavigationStats(Tab tab, String url) {
+        if (Statistics.isEnabled()) {
+            NavigationStats stats = new NavigationStats(url, AdBlocking.getVerdictCache());
+            Statistics.getNavigationLog().add(stats);
+            tab.setNavigationStats(stats);
+        } else {
+            tab.setNavigationStats(null);
+        }
     }
 
     // Show and handle the popup menu
@@ -346,6 +811,8 @@ public class MainActivity extends AppCompatActivity {
         popupMenu.setGravity(Gravity.END);
         popupMenu.inflate(R.menu.menu_main);
         popupMenu.getMenu().findItem(R.id.action_toggle_ad_blocking).setChecked(isAdBlockingEnabled);
+        popupMenu.getMenu().findItem(R.id.action_record_traces).setChecked(RequestTraces.isEnabled());
+        popupMenu.getMenu().findItem(R.id.action_cache_site).setChecked(SiteCache.isCached(tabManager.getCurrentTab().getPageHost()));
         popupMenu.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
             @Override
             public boolean onMenuItemClick(MenuItem item) {
@@ -359,11 +826,30 @@ public class MainActivity extends AppCompatActivity {
                         startActivity(Intent.createChooser(shareIntent, getString(R.string.chooser_share)));
                         return true;
 
-                    case R.id.action_new_window:
-                        // Open new window
-                        Intent newWindowIntent = new Intent(MainActivity.this, MainActivity.class);
-                        newWindowIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT | Intent.FLAG_ACTIVITY_MULTIPLE_TASK);
-                        startActivity(newWindowIntent);
+                    case R.id.action_new_tab:
+                        // Open new tab
+                        showTab(tabManager.open(startPage));
+                        return true;
+
+                    case R.id.action_tabs:
+                        // Switch between tabs
+                        showTabs();
+                        return true;
+
+                    case R.id.action_save_offline:
+                        // Save page for offline reading
+                        offlinePages.save(webView, new OfflinePages.Callback() {
+                            @Override
+                            public void onSaved(OfflinePages.Page page) {
+                                snackbarText = getString(page != null ? R.string.page_saved : R.string.page_not_saved);
+                                showSnackbar();
+                            }
+                        });
+                        return true;
+
+                    case R.id.action_saved_pages:
+                        // Open pages saved for offline reading
+                        showSavedPages();
                         return true;
 
                     case R.id.action_add_shortcut:
@@ -388,14 +874,50 @@ public class MainActivity extends AppCompatActivity {
                         webView.reload();
                         return true;
 
+                    case R.id.action_record_traces:
+                        // Record the requests of page loads for the replay benchmark
+                        RequestTraces.setEnabled(sharedPreferences, !RequestTraces.isEnabled());
+                        if (!RequestTraces.isEnabled()) {
+                            for (Tab tab : tabManager.getTabs()) {
+                                tab.setRequestTrace(null);
+                            }
+                        }
+                        item.setChecked(RequestTraces.isEnabled());
+                        return true;
+
+                    case R.id.action_cache_site:
+                        // Keep the static files of the site on the device
+                        String host = tabManager.getCurrentTab().getPageHost();
+                        if (host != null) {
+                            SiteCache.setCached(sharedPreferences, host, !SiteCache.isCached(host));
+                            snackbarText = getString(SiteCache.isCached(host) ? R.string.site_cache_enabled : R.string.site_cache_disabled);
+                            showSnackbar();
+                        }
+                        return true;
+
+                    case R.id.action_site_settings:
+                        // JavaScript, storage and blocking on the current site
+                        showSiteSettings();
+                        return true;
+
+                    case R.id.action_data_saver:
+                        // Show the savings and settings of the data saver
+                        showDataSaver();
+                        return true;
+
+                    case R.id.action_statistics:
+                        // Show page load statistics
+                        showStatistics();
+                        return true;
+
                     case R.id.action_clear_data:
                         // Clear browsing data
                         clearBrowsingData();
                         return true;
 
-                    case R.id.action_close_window:
-                        // Close window
-                        finishAndRemoveTask();
+                    case R.id.action_close_tab:
+                        // Close tab
+                        closeTab();
                         return true;
 
                     default:
@@ -420,25 +942,19 @@ public class MainActivity extends AppCompatActivity {
         builder.setPositiveButton(R.string.add, new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialogInterface, int i) {
                 // Get the title for the shortcut
-                shortcutTitle = (Objects.requireNonNull(textInput.getText()).toString().trim().isEmpty() ?
+                final String title = (Objects.requireNonNull(textInput.getText()).toString().trim().isEmpty() ?
                         webView.getTitle() : textInput.getText().toString().trim());
-                // Create the icon for the shortcut
-                createShortcutIcon();
-                // Create the shortcut
-                Intent pinShortcutIntent = new Intent(MainActivity.this, MainActivity.class);
-                pinShortcutIntent.setData(Uri.parse(webView.getUrl()));
-                pinShortcutIntent.setAction(Intent.ACTION_MAIN);
-                ShortcutInfoCompat shortcutInfo = new ShortcutInfoCompat.Builder(MainActivity.this, shortcutTitle)
-                        .setShortLabel(shortcutTitle)
-                        .setLongLabel(shortcutTitle)
-                        .setIcon(shortcutIcon)
-                        .setIntent(pinShortcutIntent)
-                        .build();
-                ShortcutManagerCompat.requestPinShortcut(MainActivity.this, shortcutInfo, null);
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-                    snackbarText = getString(R.string.shortcut_added);
-                    showSnackbar();
-                }
+                final String url = webView.getUrl();
+                String host = Uri.parse(url).getHost();
+                // The icon is composed in the background, the shortcut is requested once it is ready
+                int backgroundColor = ContextCompat.getColor(getApplicationContext(), R.color.colorShortcuts);
+                int textColor = ContextCompat.getColor(getApplicationContext(), android.R.color.white);
+                Favicons.createShortcutIcon(host, title, backgroundColor, textColor, new Favicons.Callback() {
+                    @Override
+                    public void onIcon(Bitmap icon) {
+                        if (!isDestroyed()) requestPinShortcut(title, url, icon);
+                    }
+                });
             }
         });
         // Cancel creating shortcut
@@ -450,26 +966,232 @@ public class MainActivity extends AppCompatActivity {
         builder.show();
     }
 
-    // Create launcher icons for shortcuts
-    private void createShortcutIcon() {
-        // Draw background
-        Bitmap icon = Bitmap.createBitmap(432, 432, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(icon);
-        canvas.drawColor(ContextCompat.getColor(getApplicationContext(), R.color.colorShortcuts));
-        // Get the first one or two characters of the shortcut title
-        String iconText;
-        iconText = (shortcutTitle.length() >= 2 ? shortcutTitle.substring(0, 2) : shortcutTitle.substring(0, 1));
-        // Draw the first one or two characters on the background
-        Paint paintText = new Paint();
-        paintText.setAntiAlias(true);
-        paintText.setColor(ContextCompat.getColor(getApplicationContext(), android.R.color.white));
-        paintText.setTextSize(128);
-        paintText.setFakeBoldText(true);
-        paintText.setTextAlign(Paint.Align.CENTER);
-        canvas.drawText(iconText, canvas.getWidth() / 2f,
-                canvas.getHeight() / 2f - (paintText.descent() + paintText.ascent()) / 2f, paintText);
-        // Create icon
-        shortcutIcon = IconCompat.createWithAdaptiveBitmap(icon);
+    private void requestPinShortcut(String title, String url, Bitmap icon) {
+        Intent pinShortcutIntent = new Intent(MainActivity.this, MainActivity.class);
+        pinShortcutIntent.setData(Uri.parse(url));
+        pinShortcutIntent.setAction(Intent.ACTION_MAIN);
+        ShortcutInfoCompat shortcutInfo = new ShortcutInfoCompat.Builder(MainActivity.this, title)
+                .setShortLabel(title)
+                .setLongLabel(title)
+                .setIcon(IconCompat.createWithAdaptiveBitmap(icon))
+                .setIntent(pinShortcutIntent)
+                .build();
+        ShortcutManagerCompat.requestPinShortcut(MainActivity.this, shortcutInfo, null);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            snackbarText = getString(R.string.shortcut_added);
+            showSnackbar();
+        }
+    }
+
+    // Show what the data saver has saved on the current page, it can be turned on and off here
+    private void showDataSaver() {
+        DataSaver.Savings savings = tabManager.getCurrentTab().getDataSaverSavings();
+        String message = getString(R.string.data_saver_message,
+                getString(DataSaving.isEnabled() ? R.string.data_saver_enabled : R.string.data_saver_disabled),
+                (savings != null ? savings.getRequests() : 0),
+                Formatter.formatShortFileSize(this, (savings != null ? savings.getBytes() : 0)),
+                DataSaving.get().getSavedRequests(),
+                Formatter.formatShortFileSize(this, DataSaving.get().getSavedBytes()));
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(R.string.action_data_saver)
+                .setMessage(message)
+                .setPositiveButton(DataSaving.isEnabled() ? R.string.data_saver_disable : R.string.data_saver_enable,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int i) {
+                                DataSaving.setEnabled(sharedPreferences, !DataSaving.isEnabled());
+                                snackbarText = getString(DataSaving.isEnabled() ? R.string.data_saver_enabled : R.string.data_saver_disabled);
+                                showSnackbar();
+                                webView.reload();
+                            }
+                        })
+                .setNeutralButton(R.string.data_saver_site_settings, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        showDataSaverSiteSettings();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // Choose what the data saver leaves out on the current site
+    private void showDataSaverSiteSettings() {
+        final String host = tabManager.getCurrentTab().getPageHost();
+        if (host == null) return;
+        final int[] categoryFlags = {DataSaver.IMAGES, DataSaver.MEDIA, DataSaver.FONTS, DataSaver.THIRD_PARTY_SCRIPTS};
+        final int[] categories = {DataSaving.get().getCategories(host)};
+        boolean[] checked = new boolean[categoryFlags.length];
+        for (int i = 0; i < categoryFlags.length; i++) {
+            checked[i] = (categories[0] & categoryFlags[i]) != 0;
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(getString(R.string.data_saver_site_title, host))
+                .setMultiChoiceItems(R.array.data_saver_categories, checked,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int i, boolean isChecked) {
+                                categories[0] = (isChecked ? categories[0] | categoryFlags[i] : categories[0] & ~categoryFlags[i]);
+                            }
+                        })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        DataSaving.setSiteCategories(sharedPreferences, host, categories[0]);
+                        if (DataSaving.isEnabled()) webView.reload();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // Site profile of the current site, the page is reloaded with changed settings
+    private void showSiteSettings() {
+        final String host = tabManager.getCurrentTab().getPageHost();
+        if (host == null) return;
+        final int[] profile = {SiteSettings.getProfile(host)};
+        int blocking = SiteProfiles.getBlocking(profile[0]);
+        boolean[] checked = {SiteProfiles.isJavaScriptEnabled(profile[0]), SiteProfiles.isStorageEnabled(profile[0]),
+                blocking != SiteProfiles.BLOCKING_OFF, blocking == SiteProfiles.BLOCKING_STRICT};
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(getString(R.string.site_settings_title, host))
+                .setMultiChoiceItems(R.array.site_settings_options, checked,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int i, boolean isChecked) {
+                                profile[0] = updateProfile(profile[0], i, isChecked);
+                            }
+                        })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        SiteSettings.setProfile(sharedPreferences, host, profile[0]);
+                        webView.reload();
+                    }
+                })
+                .setNeutralButton(R.string.site_settings_load_times, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        showSiteLoadTimes(host);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // Options in the order of site_settings_options, strict blocking also turns blocking on
+    private static int updateProfile(int profile, int option, boolean isChecked) {
+        int blocking = SiteProfiles.getBlocking(profile);
+        switch (option) {
+            case 0:
+                return (isChecked ? profile | SiteProfiles.JAVASCRIPT : profile & ~SiteProfiles.JAVASCRIPT);
+            case 1:
+                return (isChecked ? profile | SiteProfiles.STORAGE : profile & ~SiteProfiles.STORAGE);
+            case 2:
+                if (!isChecked) return SiteProfiles.withBlocking(profile, SiteProfiles.BLOCKING_OFF);
+                return (blocking == SiteProfiles.BLOCKING_OFF
+                        ? SiteProfiles.withBlocking(profile, SiteProfiles.BLOCKING_DEFAULT) : profile);
+            default:
+                return SiteProfiles.withBlocking(profile, (isChecked ? SiteProfiles.BLOCKING_STRICT :
+                        SiteProfiles.BLOCKING_DEFAULT));
+        }
+    }
+
+    // Compare the load times of the site with and without the lite profile
+    private void showSiteLoadTimes(String host) {
+        SiteLoadTimes.Site site = SiteSettings.getLoadTimes().get(host);
+        long fullMillis = (site != null ? site.getFullMillis() : -1);
+        long liteMillis = (site != null ? site.getLiteMillis() : -1);
+        String none = getString(R.string.site_load_times_none);
+        StringBuilder message = new StringBuilder(getString(R.string.site_load_times_message, host,
+                (fullMillis >= 0 ? fullMillis + " ms" : none), (site != null ? site.getFullCount() : 0),
+                (liteMillis >= 0 ? liteMillis + " ms" : none), (site != null ? site.getLiteCount() : 0)));
+        if (fullMillis > 0 && liteMillis >= 0 && liteMillis < fullMillis) {
+            int faster = (int) ((fullMillis - liteMillis) * 100 / fullMillis);
+            message.append(getString(R.string.site_load_times_faster, faster));
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(R.string.site_settings_load_times)
+                .setMessage(message)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    // Show the statistics of the recent page loads, they can be exported as JSON
+    private void showStatistics() {
+        StringBuilder message = new StringBuilder();
+        if (!Statistics.isEnabled()) {
+            message.append(getString(R.string.statistics_disabled));
+        } else if (Statistics.getNavigationLog().getNavigations().isEmpty()) {
+            message.append(getString(R.string.statistics_empty));
+        }
+        for (NavigationStats stats : Statistics.getNavigationLog().getNavigations()) {
+            if (message.length() > 0) message.append("\n\n");
+            String loadTime = (stats.isFinished() ? stats.getLoadTimeMillis() + " ms" : getString(R.string.statistics_loading));
+            message.append(getString(R.string.statistics_navigation, stats.getUrl(), loadTime,
+                    stats.getRequestCount(), stats.getBlockedCount(),
+                    stats.getLookupTime().percentile(50) / 1000f, stats.getLookupTime().percentile(99) / 1000f,
+                    Math.round(stats.getCacheHitRatio() * 100)));
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setBackground(getDrawable(R.drawable.background_round_corners))
+                .setTitle(R.string.action_statistics)
+                .setMessage(message)
+                .setPositiveButton(R.string.statistics_export, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        Intent exportIntent = new Intent(Intent.ACTION_SEND);
+                        exportIntent.setType("application/json");
+                        exportIntent.putExtra(Intent.EXTRA_TEXT, Statistics.toJson());
+                        startActivity(Intent.createChooser(exportIntent, getString(R.string.statistics_export)));
+                    }
+                })
+                .setNeutralButton(Statistics.isEnabled() ? R.string.statistics_disable : R.string.statistics_enable,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int i) {
+                                Statistics.setEnabled(!Statistics.isEnabled());
+                                editor = sharedPreferences.edit();
+                                editor.putBoolean("statistics", Statistics.isEnabled());
+                                editor.apply();
+                                if (!Statistics.isEnabled()) {
+                                    for (Tab tab : tabManager.getTabs()) {
+                                        tab.setNavigationStats(null);
+                                    }
+                                }
+                            }
+                        })
+                .setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        dialogInterface.dismiss();
+                    }
+                })
+                .show();
     }
 
     // Clear browsing data
@@ -485,7 +1207,12 @@ public class MainActivity extends AppCompatActivity {
                         webView.clearCache(true);
                         CookieManager.getInstance().removeAllCookies(null);
                         WebStorage.getInstance().deleteAllData();
-                        webView.loadUrl(startPage);
+                        history.clear();
+                        SiteCache.clear();
+                        Favicons.clear();
+                        RequestTraces.clear(MainActivity.this);
+                        SiteSettings.getLoadTimes().clear();
+                        loadUrl(startPage);
                         snackbarText = getString(R.string.clear_data_confirmation);
                         showSnackbar();
                     }
@@ -499,22 +1226,14 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
-    // Check if there is a default app to open the current link
+    // Check if there is a default app to open the current link, the button keeps its state
+    // until a lookup started here calls this again with the result
     private void checkDefaultApps() {
-        String packageName = "de.badener.companion_browser";
-        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(webView.getUrl()));
-        PackageManager packageManager = getPackageManager();
-        List<ResolveInfo> list = packageManager.queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
-        for (ResolveInfo info : list) {
-            packageName = info.activityInfo.packageName;
-        }
-        if (packageName.equals("de.badener.companion_browser")) {
-            isDefaultAppAvailable = false;
-            openDefaultAppButton.setVisibility(View.GONE);
-        } else {
-            isDefaultAppAvailable = true;
-            openDefaultAppButton.setVisibility(View.VISIBLE);
-        }
+        if (webView == null) return;
+        Boolean isAvailable = defaultApps.isAvailable(webView.getUrl());
+        if (isAvailable == null) return;
+        isDefaultAppAvailable = isAvailable;
+        openDefaultAppButton.setVisibility(isAvailable && !searchTextInput.hasFocus() ? View.VISIBLE : View.GONE);
     }
 
     // Restore fullscreen after losing and gaining focus
@@ -567,8 +1286,94 @@ public class MainActivity extends AppCompatActivity {
             searchTextInput.clearFocus();
         } else if (webView.canGoBack()) {
             webView.goBack();
+        } else if (tabManager.size() > 1) {
+            closeTab();
         } else {
             finishAndRemoveTask();
         }
     }
+
+    // Save the open tabs while the window is shown, in case the process is killed
+    private final Runnable saveSession = new Runnable() {
+        @Override
+        public void run() {
+            if (isSessionChanged) {
+                isSessionChanged = false;
+                SessionStore.save(MainActivity.this, tabManager);
+            }
+            getWindow().getDecorView().postDelayed(this, sessionSaveIntervalMillis);
+        }
+    };
+
+    // Stop rendering and JavaScript timers of all WebViews while the window is in the background,
+    // the session is saved as the process may be killed from now on
+    @Override
+    protected void onPause() {
+        history.flush();
+        getWindow().getDecorView().removeCallbacks(saveSession);
+        if (tabManager.size() > 0) SessionStore.save(this, tabManager);
+        isSessionChanged = false;
+        if (webView != null) {
+            webView.onPause();
+            webView.pauseTimers();
+        }
+        super.onPause();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        getWindow().getDecorView().postDelayed(saveSession, sessionSaveIntervalMillis);
+        if (webView != null) {
+            webView.resumeTimers();
+            webView.onResume();
+        }
+    }
+
+    // Release memory in steps: the verdict cache, then the memory cache of the WebViews,
+    // then the WebViews of all tabs except the current one, which are restored when shown.
+    // The running levels come while in the foreground, the others once the app is in the background,
+    // hiding the UI alone is no memory pressure.
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        boolean isRunningLow = level == TRIM_MEMORY_RUNNING_LOW;
+        boolean isRunningCritical = level == TRIM_MEMORY_RUNNING_CRITICAL;
+        if (isRunningLow || isRunningCritical || level >= TRIM_MEMORY_BACKGROUND) {
+            AdBlocking.getVerdictCache().clear();
+        }
+        if ((isRunningCritical || level >= TRIM_MEMORY_BACKGROUND) && webView != null) {
+            webView.clearCache(false);
+        }
+        if (isRunningCritical || level >= TRIM_MEMORY_MODERATE) {
+            tabManager.trim(1);
+            preconnector.trim();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    // Links and shortcuts opened while the browser is running get their own tab
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        Uri uri = intent.getData();
+        if (uri != null) showTab(tabManager.open(uri.toString()));
+    }
+
+    @Override
+    protected void onDestroy() {
+        defaultApps.unregister();
+        preconnector.destroy();
+        tabManager.closeAll();
+        history.close();
+        offlinePages.close();
+        webView = null;
+        super.onDestroy();
+    }
 }
@@ -1,72 +1,228 @@
 package de.badener.companion_browser.utils;
 
 import android.content.Context;
-import android.os.AsyncTask;
-import android.text.TextUtils;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
 import android.webkit.WebResourceResponse;
 
 import androidx.annotation.WorkerThread;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import de.badener.companion_browser.R;
+import de.badener.companion_browser.blocking.AdBlockingEngine;
+import de.badener.companion_browser.blocking.CosmeticFilters;
+import de.badener.companion_browser.blocking.FilterListUpdater;
+import de.badener.companion_browser.blocking.FilterMatcher;
+import de.badener.companion_browser.blocking.HostTrie;
+import de.badener.companion_browser.blocking.HostVerdictCache;
+import de.badener.companion_browser.blocking.ResourceType;
 
 public class AdBlocking {
-    private static final int AD_HOSTS_FILE = R.raw.hosts;
-    private static final Set<String> AD_HOSTS = new HashSet<>();
+    // Compiled from blocklist/hosts.txt at build time and stored uncompressed
+    private static final String AD_HOSTS_INDEX = "hosts.idx";
+    private static final int VERDICT_CACHE_CAPACITY = 1024;
+    // Downloaded filter lists are checked for updates once a day, the first check waits for the startup
+    private static final long FILTER_UPDATE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long FILTER_UPDATE_MIN_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final String FILTER_LISTS_DIRECTORY = "filter_lists";
+    private static final String COSMETIC_STYLE_ID = "companion-browser-cosmetic";
 
-    public static void init(final Context context) {
-        new AsyncTask<Void, Void, Void>() {
+    // Shared by all blocked responses, WebView only reads them
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] TRANSPARENT_GIF = {
+            0x47, 0x49, 0x46, 0x38, 0x39, 0x61, 0x01, 0x00, 0x01, 0x00, (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x21, (byte) 0xf9, 0x04, 0x01, 0x00, 0x00, 0x00, 0x00, 0x2c, 0x00, 0x00, 0x00, 0x00,
+            0x01, 0x00, 0x01, 0x00, 0x00, 0x02, 0x02, 0x44, 0x01, 0x00, 0x3b};
+    // Allow cross-origin reads, so that blocked XHR requests end quietly instead of as errors
+    private static final Map<String, String> BLOCKED_HEADERS;
+
+    static {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", "*");
+        headers.put("Cache-Control", "no-store");
+        BLOCKED_HEADERS = Collections.unmodifiableMap(headers);
+    }
+
+    // Shared by all windows of the process
+    private static final AdBlockingEngine ENGINE = new AdBlockingEngine(
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("AdBlocking")), VERDICT_CACHE_CAPACITY);
+    // Downloading and parsing filter lists runs apart from the loading, it may take seconds
+    private static final ScheduledExecutorService UPDATES =
+            Executors.newSingleThreadScheduledExecutor(BackgroundThreads.newThreadFactory("FilterListUpdates"));
+    private static FilterListUpdater filterListUpdater;
+
+    // The index is loaded once per process, a failed load is retried
+    public static Future<HostTrie> init(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return ENGINE.load(new Callable<HostTrie>() {
+            @Override
+            public HostTrie call() throws IOException {
+                return loadFromAssets(appContext);
+            }
+        });
+    }
+
+    // Load the filter lists compiled by the last update, then keep them up to date in the background.
+    // Not needed for the first frame, so windows start this once they have been drawn.
+    public static synchronized void startFilterListUpdates(Context context) {
+        if (filterListUpdater != null) return;
+        final FilterListUpdater updater = new FilterListUpdater(
+                new File(context.getApplicationContext().getFilesDir(), FILTER_LISTS_DIRECTORY),
+                Arrays.asList(context.getResources().getStringArray(R.array.filter_lists)));
+        filterListUpdater = updater;
+        UPDATES.execute(new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
+                long delay = FILTER_UPDATE_MIN_DELAY_MILLIS;
                 try {
-                    loadFromAssets(context);
-                } catch (IOException ignored) {
+                    FilterMatcher compiled = updater.loadCompiled();
+                    if (compiled != null) ENGINE.setFilters(compiled);
+                    ENGINE.setCosmeticFilters(updater.loadCompiledCosmetic());
+                    long due = updater.lastChecked() + FILTER_UPDATE_INTERVAL_MILLIS - System.currentTimeMillis();
+                    delay = Math.max(delay, due);
+                } catch (IOException | RuntimeException e) {
+                    // Unreadable or corrupt, the first update compiles the lists again
+                    updater.deleteCompiled();
+                } finally {
+                    // Updates are scheduled whatever happened to the compiled lists
+                    UPDATES.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateFilterLists(updater);
+                        }
+                    }, delay, FILTER_UPDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
                 }
-                return null;
             }
-        }.execute();
+        });
     }
 
     @WorkerThread
-    private static void loadFromAssets(Context context) throws IOException {
-        InputStream stream = context.getResources().openRawResource(AD_HOSTS_FILE);
-        BufferedReader buffer = new BufferedReader(new InputStreamReader(stream));
-        String line;
-        while ((line = buffer.readLine()) != null) {
-            AD_HOSTS.add(line);
+    private static void updateFilterLists(FilterListUpdater updater) {
+        try {
+            // The new matcher is built completely before it replaces the current one
+            FilterMatcher updated = updater.update();
+            if (updated != null) {
+                ENGINE.setFilters(updated);
+                ENGINE.setCosmeticFilters(updater.loadCompiledCosmetic());
+            }
+        } catch (IOException ignored) {
+            // Offline or the server failed, try again with the next update
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic updates, compile everything again next time
+            updater.deleteCompiled();
         }
-        buffer.close();
-        stream.close();
     }
 
-    public static boolean isAd(String url) {
+    public static boolean isReady() {
+        return ENGINE.isReady();
+    }
+
+    // Wait up to the given time for the index, returns false if ad blocking is still not ready
+    public static boolean awaitReady(long timeout, TimeUnit unit) {
+        return ENGINE.awaitReady(timeout, unit);
+    }
+
+    @WorkerThread
+    private static HostTrie loadFromAssets(Context context) throws IOException {
+        // Map the index directly from the APK, it is queried in place
+        AssetFileDescriptor descriptor = context.getAssets().openFd(AD_HOSTS_INDEX);
+        FileInputStream stream = descriptor.createInputStream();
         try {
-            URL netUrl = new URL(url);
-            return isAdHost(netUrl.getHost());
-        } catch (MalformedURLException ignored) {
+            return HostTrie.map(stream.getChannel(), descriptor.getStartOffset(), descriptor.getLength());
+        } finally {
+            stream.close();
+            descriptor.close();
+        }
+    }
+
+    // Fails open, requests are not blocked while the index is still loading
+    public static boolean isAd(Uri uri) {
+        return uri != null && ENGINE.isAd(uri.toString());
+    }
+
+    // Also checks the filter lists, documentHost is the host of the page or null if unknown
+    public static boolean isAd(Uri uri, String documentHost, int type) {
+        return uri != null && ENGINE.isAd(uri.toString(), documentHost, type);
+    }
+
+    public static boolean isAd(CharSequence url) {
+        return ENGINE.isAd(url);
+    }
+
+    public static boolean isAdHost(String host) {
+        return ENGINE.isAdHost(host);
+    }
+
+    // Script adding the stylesheet that hides the ad elements on pages of the host, null before the
+    // filter lists are loaded. It returns true once the style is in the document and does nothing if
+    // it is already there, so it can run again if the document did not exist yet.
+    public static String createCosmeticScript(String host) {
+        CosmeticFilters filters = ENGINE.getCosmeticFilters();
+        String stylesheet = (filters != null ? filters.getStylesheet(host) : null);
+        if (stylesheet == null || stylesheet.isEmpty()) {
+            return null;
+        }
+        StringBuilder script = new StringBuilder(stylesheet.length() + 320);
+        script.append("(function(){var d=document,e=d.documentElement;if(!e)return false;")
+                .append("if(d.getElementById('" + COSMETIC_STYLE_ID + "'))return true;")
+                .append("var s=d.createElement('style');s.id='" + COSMETIC_STYLE_ID + "';s.textContent='");
+        for (int i = 0; i < stylesheet.length(); i++) {
+            char c = stylesheet.charAt(i);
+            if (c == '\\' || c == '\'') {
+                script.append('\\').append(c);
+            } else if (c == '\n') {
+                script.append("\\n");
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                script.append(String.format("\\u%04x", (int) c));
+            } else {
+                script.append(c);
+            }
         }
-        return false;
+        return script.append("';e.appendChild(s);return true;})()").toString();
+    }
+
+    public static HostVerdictCache getVerdictCache() {
+        return ENGINE.getVerdictCache();
+    }
+
+    public static AdBlockingEngine getEngine() {
+        return ENGINE;
     }
 
-    private static boolean isAdHost(String host) {
-        if (TextUtils.isEmpty(host)) {
-            return false;
+    // Response for a blocked request matching its type, so that pages neither wait on it nor retry it.
+    // Only the response object and the stream around the shared bytes are created per request.
+    public static WebResourceResponse createBlockedResource(int type) {
+        switch (type) {
+            case ResourceType.IMAGE:
+                return createResponse("image/gif", 200, "OK", TRANSPARENT_GIF);
+            case ResourceType.SCRIPT:
+                return createResponse("text/javascript", 200, "OK", EMPTY);
+            case ResourceType.STYLESHEET:
+                return createResponse("text/css", 200, "OK", EMPTY);
+            case ResourceType.DOCUMENT:
+            case ResourceType.SUBDOCUMENT:
+                return createResponse("text/html", 403, "Forbidden", EMPTY);
+            default:
+                return createResponse("text/plain", 204, "No Content", EMPTY);
         }
-        int index = host.indexOf('.');
-        return index >= 0 && (AD_HOSTS.contains(host) ||
-                index + 1 < host.length() && isAdHost(host.substring(index + 1)));
     }
 
-    public static WebResourceResponse createEmptyResource() {
-        return new WebResourceResponse("text/plain", "utf-8", new ByteArrayInputStream("".getBytes()));
+    private static WebResourceResponse createResponse(String mimeType, int statusCode, String reasonPhrase,
+                                                      byte[] data) {
+        return new WebResourceResponse(mimeType, "utf-8", statusCode, reasonPhrase, BLOCKED_HEADERS,
+                new ByteArrayInputStream(data));
     }
 }
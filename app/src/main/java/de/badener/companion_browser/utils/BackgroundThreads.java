@@ -0,0 +1,26 @@
+package de.badener.companion_browser.utils;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+
+public class BackgroundThreads {
+
+    // Daemon threads with background priority, so they do not compete with the UI and WebView
+    public static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package de.badener.companion_browser.utils;
+
+import android.content.SharedPreferences;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.badener.companion_browser.blocking.DataSaver;
+
+// The data saver of the app and its settings: whether it is enabled and the rules of sites that
+// differ from the default, stored as "host=categories" entries.
+public class DataSaving {
+    private static final String KEY_ENABLED = "data_saver";
+    private static final String KEY_SITES = "data_saver_sites";
+    private static final DataSaver DATA_SAVER = new DataSaver();
+    private static volatile boolean isEnabled;
+
+    private DataSaving() {
+    }
+
+    public static DataSaver get() {
+        return DATA_SAVER;
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public static void load(SharedPreferences preferences) {
+        isEnabled = preferences.getBoolean(KEY_ENABLED, false);
+        for (String site : preferences.getStringSet(KEY_SITES, new HashSet<String>())) {
+            int separator = site.lastIndexOf('=');
+            if (separator <= 0) continue;
+            try {
+                DATA_SAVER.setSiteCategories(site.substring(0, separator),
+                        Integer.parseInt(site.substring(separator + 1)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    public static void setEnabled(SharedPreferences preferences, boolean enabled) {
+        isEnabled = enabled;
+        preferences.edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    // A site with the default categories does not need its own rule
+    public static void setSiteCategories(SharedPreferences preferences, String host, int categories) {
+        if (categories == DATA_SAVER.getDefaultCategories()) {
+            DATA_SAVER.removeSite(host);
+        } else {
+            DATA_SAVER.setSiteCategories(host, categories);
+        }
+        Set<String> sites = new HashSet<>();
+        for (Map.Entry<String, Integer> site : DATA_SAVER.getSites().entrySet()) {
+            sites.add(site.getKey() + "=" + site.getValue());
+        }
+        preferences.edit().putStringSet(KEY_SITES, sites).apply();
+    }
+
+    public static void appendJson(StringBuilder json) {
+        json.append("{\"enabled\":").append(isEnabled)
+                .append(",\"savedRequests\":").append(DATA_SAVER.getSavedRequests())
+                .append(",\"savedBytes\":").append(DATA_SAVER.getSavedBytes())
+                .append(",\"sites\":").append(DATA_SAVER.getSites().size()).append('}');
+    }
+}
@@ -0,0 +1,113 @@
+package de.badener.companion_browser.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.WorkerThread;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Finds out if there is an app to open a URL in. The package manager is queried on a background
+// thread and the result is kept per scheme and host until apps are installed, removed or changed.
+public class DefaultApps {
+    private static final int CACHE_CAPACITY = 128;
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("DefaultApps"));
+
+    private final Context context;
+    private final Runnable listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Guarded by this, the oldest entries are removed beyond the capacity
+    private final Map<String, Boolean> cache = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    private final Set<String> pending = new HashSet<>();
+    // Results of lookups started before a package change are not cached
+    private int generation;
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            synchronized (DefaultApps.this) {
+                cache.clear();
+                generation++;
+            }
+            listener.run();
+        }
+    };
+
+    // The listener is called on the main thread when a result becomes available or has changed
+    public DefaultApps(Context context, Runnable listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+    }
+
+    public void register() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageReceiver, filter);
+    }
+
+    public void unregister() {
+        context.unregisterReceiver(packageReceiver);
+    }
+
+    // Returns the cached result or null while it is being looked up
+    public synchronized Boolean isAvailable(String url) {
+        if (url == null) {
+            return false;
+        }
+        final Uri uri = Uri.parse(url);
+        final String key = uri.getScheme() + "://" + uri.getHost();
+        Boolean isAvailable = cache.get(key);
+        if (isAvailable != null || !pending.add(key)) {
+            return isAvailable;
+        }
+        final int lookupGeneration = generation;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean result = queryDefaultApp(uri);
+                synchronized (DefaultApps.this) {
+                    pending.remove(key);
+                    if (lookupGeneration == generation) cache.put(key, result);
+                }
+                handler.post(listener);
+            }
+        });
+        return null;
+    }
+
+    // Check if the last app handling the link is not this browser
+    @WorkerThread
+    private boolean queryDefaultApp(Uri uri) {
+        String packageName = context.getPackageName();
+        Intent intent = new Intent(Intent.ACTION_VIEW, uri);
+        PackageManager packageManager = context.getPackageManager();
+        List<ResolveInfo> list = packageManager.queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY);
+        for (ResolveInfo info : list) {
+            packageName = info.activityInfo.packageName;
+        }
+        return !packageName.equals(context.getPackageName());
+    }
+}
@@ -0,0 +1,168 @@
+package de.badener.companion_browser.utils;
+
+import android.app.DownloadManager;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.text.format.Formatter;
+import android.webkit.CookieManager;
+import android.webkit.URLUtil;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.badener.companion_browser.R;
+import de.badener.companion_browser.blocking.SegmentedDownload;
+
+// Downloads files with SegmentedDownload into the public download directory, sending the cookies
+// and the user agent of the WebView. Progress is shown in a notification, finished files are
+// handed to the DownloadManager so they appear in the downloads app like before.
+public class Downloads {
+    private static final String CHANNEL_ID = "downloads";
+    private static final int MAX_CONNECTIONS = 4;
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(BackgroundThreads.newThreadFactory("Downloads"));
+    private static final AtomicInteger nextNotificationId = new AtomicInteger(1000);
+
+    private static final AtomicLong finished = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong transferredBytes = new AtomicLong();
+    private static final AtomicLong transferMillis = new AtomicLong();
+
+    private Downloads() {
+    }
+
+    // Finding the directory and the file name is disk access, so it runs on the download thread as well
+    public static void start(Context context, String url, String userAgent, String contentDisposition,
+                             String mimeType) throws IOException {
+        final Context appContext = context.getApplicationContext();
+        final String fileName = URLUtil.guessFileName(url, contentDisposition, mimeType);
+        final URL downloadUrl = new URL(url);
+        final String type = mimeType;
+
+        final Map<String, String> headers = new HashMap<>();
+        if (userAgent != null) headers.put("User-Agent", userAgent);
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) headers.put("Cookie", cookies);
+
+        createChannel(appContext);
+        final int notificationId = nextNotificationId.getAndIncrement();
+        final NotificationManagerCompat notifications = NotificationManagerCompat.from(appContext);
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(appContext, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(fileName)
+                .setOnlyAlertOnce(true)
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        notifications.notify(notificationId, notification.build());
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    failed.incrementAndGet();
+                    notifyFailed(appContext, notifications, notification, notificationId);
+                    return;
+                }
+                File target = uniqueTarget(directory, fileName);
+                notification.setContentTitle(target.getName());
+                SegmentedDownload download = new SegmentedDownload(downloadUrl, target, headers, MAX_CONNECTIONS,
+                        EXECUTOR);
+                download.run(new SegmentedDownload.Listener() {
+                    @Override
+                    public void onProgress(SegmentedDownload download) {
+                        long length = download.getLength();
+                        int percent = (length > 0 ? (int) (download.getDownloadedBytes() * 100 / length) : 0);
+                        notification.setProgress(100, percent, length <= 0)
+                                .setContentText(Formatter.formatShortFileSize(appContext,
+                                        download.getBytesPerSecond()) + "/s");
+                        notifications.notify(notificationId, notification.build());
+                    }
+
+                    @Override
+                    public void onFinished(SegmentedDownload download) {
+                        record(download);
+                        finished.incrementAndGet();
+                        notifications.cancel(notificationId);
+                        DownloadManager downloadManager =
+                                (DownloadManager) appContext.getSystemService(Context.DOWNLOAD_SERVICE);
+                        if (downloadManager != null) {
+                            File file = download.getTarget();
+                            //noinspection deprecation
+                            downloadManager.addCompletedDownload(file.getName(), file.getName(), true,
+                                    (type != null ? type : "application/octet-stream"),
+                                    file.getAbsolutePath(), file.length(), true);
+                        }
+                    }
+
+                    @Override
+                    public void onFailed(SegmentedDownload download, IOException e) {
+                        record(download);
+                        failed.incrementAndGet();
+                        // A journal is kept if the download can be continued by downloading the same file again
+                        notifyFailed(appContext, notifications, notification, notificationId);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void notifyFailed(Context context, NotificationManagerCompat notifications,
+                                     NotificationCompat.Builder notification, int notificationId) {
+        notification.setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentText(context.getString(R.string.download_failed))
+                .setProgress(0, 0, false)
+                .setOngoing(false);
+        notifications.notify(notificationId, notification.build());
+    }
+
+    // An unfinished download of the same name is continued, existing files are not overwritten
+    private static File uniqueTarget(File directory, String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String name = (dot > 0 ? fileName.substring(0, dot) : fileName);
+        String extension = (dot > 0 ? fileName.substring(dot) : "");
+        File target = new File(directory, fileName);
+        for (int i = 1; target.exists() && !new File(target.getPath() + ".journal").exists(); i++) {
+            target = new File(directory, name + "-" + i + extension);
+        }
+        return target;
+    }
+
+    private static void createChannel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationManager manager = context.getSystemService(NotificationManager.class);
+        if (manager != null && manager.getNotificationChannel(CHANNEL_ID) == null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.downloads), NotificationManager.IMPORTANCE_LOW));
+        }
+    }
+
+    private static void record(SegmentedDownload download) {
+        transferredBytes.addAndGet(download.getTransferredBytes());
+        transferMillis.addAndGet(download.getElapsedMillis());
+    }
+
+    public static void appendJson(StringBuilder json) {
+        long millis = transferMillis.get();
+        json.append("{\"finished\":").append(finished.get())
+                .append(",\"failed\":").append(failed.get())
+                .append(",\"bytes\":").append(transferredBytes.get())
+                .append(",\"bytesPerSecond\":").append(millis > 0 ? transferredBytes.get() * 1000 / millis : 0)
+                .append('}');
+    }
+}
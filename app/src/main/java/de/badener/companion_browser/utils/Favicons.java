@@ -0,0 +1,227 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Site icons delivered by WebView, kept per host in a small memory cache and on disk, both least
+// recently used first. Shortcut icons are composed from them on a background thread.
+public class Favicons {
+    private static final String DIRECTORY = "favicons";
+    private static final int MEMORY_BYTES = 2 * 1024 * 1024;
+    private static final long DISK_BYTES = 2 * 1024 * 1024;
+    // Larger icons are scaled down before they are cached
+    private static final int MAX_ICON_SIZE = 128;
+    // Adaptive icons are 108 dp with the visible part in the middle 72 dp, drawn at 4x
+    private static final int SHORTCUT_SIZE = 432;
+    private static final int SHORTCUT_ICON_SIZE = 176;
+    // Small icons are scaled up less, they would only get blurry
+    private static final int SHORTCUT_SMALL_ICON_SIZE = 96;
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("Favicons"));
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final LruCache<String, Bitmap> MEMORY = new LruCache<String, Bitmap>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String host, Bitmap icon) {
+            return icon.getByteCount();
+        }
+    };
+
+    private static File directory;
+
+    public interface Callback {
+        void onIcon(Bitmap icon);
+    }
+
+    private Favicons() {
+    }
+
+    public static synchronized void init(Context context) {
+        if (directory == null) directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+    }
+
+    // Called with the icons WebView receives, the bitmap is not changed
+    @MainThread
+    public static void put(final String host, final Bitmap icon) {
+        if (host == null || icon == null || icon.getWidth() == 0 || icon.getHeight() == 0) return;
+        final String key = host.toLowerCase(Locale.ROOT);
+        Bitmap cached = MEMORY.get(key);
+        if (cached != null && cached.getWidth() >= Math.min(icon.getWidth(), MAX_ICON_SIZE)) return;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap scaled = scaleDown(icon);
+                MEMORY.put(key, scaled);
+                write(key, scaled);
+            }
+        });
+    }
+
+    // Only icons in memory, for lists drawn on the main thread
+    public static Bitmap getCached(String host) {
+        return (host != null ? MEMORY.get(host.toLowerCase(Locale.ROOT)) : null);
+    }
+
+    // The icon of the host from memory or disk, null if there is none
+    @WorkerThread
+    private static Bitmap get(String key) {
+        Bitmap icon = MEMORY.get(key);
+        if (icon != null) return icon;
+        File file = fileOf(key);
+        if (file == null || !file.isFile()) return null;
+        icon = decode(file);
+        if (icon != null) {
+            MEMORY.put(key, icon);
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return icon;
+    }
+
+    // Composes the launcher icon of a shortcut: the site icon on white or the first letters of the title
+    // on the background color, the callback runs on the main thread
+    public static void createShortcutIcon(final String host, final String title, final int backgroundColor,
+                                          final int textColor, final Callback callback) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap icon = (host != null ? get(host.toLowerCase(Locale.ROOT)) : null);
+                final Bitmap shortcutIcon = (icon != null ? drawIconTile(icon)
+                        : drawLetterTile(title, backgroundColor, textColor));
+                MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onIcon(shortcutIcon);
+                    }
+                });
+            }
+        });
+    }
+
+    public static void clear() {
+        MEMORY.evictAll();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                MEMORY.evictAll();
+                File[] files = (directory != null ? directory.listFiles() : null);
+                if (files == null) return;
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    private static Bitmap drawIconTile(Bitmap icon) {
+        Bitmap tile = Bitmap.createBitmap(SHORTCUT_SIZE, SHORTCUT_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(tile);
+        canvas.drawColor(0xffffffff);
+        int size = (Math.max(icon.getWidth(), icon.getHeight()) >= 64 ? SHORTCUT_ICON_SIZE : SHORTCUT_SMALL_ICON_SIZE);
+        int offset = (SHORTCUT_SIZE - size) / 2;
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        canvas.drawBitmap(icon, null, new Rect(offset, offset, offset + size, offset + size), paint);
+        return tile;
+    }
+
+    private static Bitmap drawLetterTile(String title, int backgroundColor, int textColor) {
+        Bitmap tile = Bitmap.createBitmap(SHORTCUT_SIZE, SHORTCUT_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(tile);
+        canvas.drawColor(backgroundColor);
+        // The first one or two characters of the title
+        String text = (title.length() >= 2 ? title.substring(0, 2) : title);
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setColor(textColor);
+        paint.setTextSize(128);
+        paint.setFakeBoldText(true);
+        paint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText(text, SHORTCUT_SIZE / 2f, SHORTCUT_SIZE / 2f - (paint.descent() + paint.ascent()) / 2f, paint);
+        return tile;
+    }
+
+    private static Bitmap scaleDown(Bitmap icon) {
+        int size = Math.max(icon.getWidth(), icon.getHeight());
+        if (size <= MAX_ICON_SIZE) return icon;
+        return Bitmap.createScaledBitmap(icon, icon.getWidth() * MAX_ICON_SIZE / size,
+                icon.getHeight() * MAX_ICON_SIZE / size, true);
+    }
+
+    // Decode at the smallest power of two scale that is still at least the cached size
+    private static Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        int size = Math.max(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (size / (options.inSampleSize * 2) >= MAX_ICON_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    @WorkerThread
+    private static void write(String key, Bitmap icon) {
+        File file = fileOf(key);
+        if (file == null) return;
+        File temp = new File(directory, file.getName() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) return;
+            try (OutputStream output = new FileOutputStream(temp)) {
+                icon.compress(Bitmap.CompressFormat.PNG, 100, output);
+            }
+            if (!temp.renameTo(file)) temp.delete();
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    // Delete the least recently used icons above the budget, reading an icon updates its time
+    @WorkerThread
+    private static void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_BYTES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > DISK_BYTES; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    // Hosts are valid file names apart from the brackets and colons of IPv6 addresses
+    private static File fileOf(String key) {
+        return (directory != null ? new File(directory, key.replaceAll("[^a-z0-9.-]", "_") + ".png") : null);
+    }
+}
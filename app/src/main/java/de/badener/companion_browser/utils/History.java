@@ -0,0 +1,314 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Visited pages for the suggestions of the search field. Visits are appended to a log file in
+// batches on a background thread, the log is read and compacted once when the history is created.
+// Apart from the loading, all in-memory state is only used on the main thread.
+public class History {
+    private static final String LOG_FILE = "history.log";
+    private static final long FLUSH_DELAY_MILLIS = 2000;
+    // The index is rebuilt in the background once this many entries are searched without it
+    private static final int MAX_RECENT = 2000;
+
+    private final File file;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(BackgroundThreads.newThreadFactory("History"));
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HistorySearch search = new HistorySearch();
+
+    private final Map<String, HistoryEntry> entries = new HashMap<>();
+    // Entries missing from the index or with a title it does not know
+    private final List<HistoryEntry> recent = new ArrayList<>();
+    private HistoryIndex index;
+    private int recentVersion;
+    private boolean isRebuilding;
+    // Indexes built before the history was cleared are dropped
+    private int clearCount;
+    private boolean isClosed;
+
+    // Guarded by itself, log lines not written yet
+    private final StringBuilder pendingLines = new StringBuilder();
+    private boolean isFlushScheduled;
+
+    public History(Context context) {
+        file = new File(context.getApplicationContext().getFilesDir(), LOG_FILE);
+        // Runs before any write, the executor has a single thread
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    @MainThread
+    public void recordVisit(String url, String title) {
+        if (isClosed || !isRecorded(url)) return;
+        long now = System.currentTimeMillis();
+        HistoryEntry entry = entries.get(url);
+        if (entry == null) {
+            entry = new HistoryEntry(url, emptyToNull(title), 1, now);
+            entries.put(url, entry);
+            addRecent(entry);
+        } else {
+            entry.addVisits(1, now);
+            updateTitle(entry, title);
+        }
+        append(1, now, url, entry.getTitle());
+    }
+
+    // Titles are usually received after the visit
+    @MainThread
+    public void recordTitle(String url, String title) {
+        HistoryEntry entry = (url != null && !isClosed ? entries.get(url) : null);
+        if (entry != null && updateTitle(entry, title)) {
+            append(0, entry.getLastVisit(), url, entry.getTitle());
+        }
+    }
+
+    // Up to limit entries matching the input, the best first
+    @MainThread
+    public List<HistoryEntry> suggest(String input, int limit) {
+        return search.search(index, recent, input, System.currentTimeMillis(), limit);
+    }
+
+    @MainThread
+    public void clear() {
+        if (isClosed) return;
+        clearCount++;
+        entries.clear();
+        for (HistoryEntry entry : recent) {
+            entry.recentVersion = 0;
+        }
+        recent.clear();
+        index = null;
+        synchronized (pendingLines) {
+            pendingLines.setLength(0);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        });
+    }
+
+    // Write pending visits now, for example when the app goes to the background
+    @MainThread
+    public void flush() {
+        if (isClosed) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        });
+    }
+
+    // Write pending visits and stop the background thread, the history is not used afterwards
+    @MainThread
+    public void close() {
+        flush();
+        isClosed = true;
+        executor.shutdown();
+    }
+
+    private static boolean isRecorded(String url) {
+        return url != null && (url.startsWith("https://") || url.startsWith("http://"));
+    }
+
+    private static String emptyToNull(String title) {
+        return (title == null || title.trim().isEmpty() ? null : title.trim());
+    }
+
+    private boolean updateTitle(HistoryEntry entry, String title) {
+        title = emptyToNull(title);
+        if (title == null || title.equals(entry.getTitle())) {
+            return false;
+        }
+        entry.setTitle(title);
+        addRecent(entry);
+        return true;
+    }
+
+    private void addRecent(HistoryEntry entry) {
+        if (entry.recentVersion == 0) recent.add(entry);
+        entry.recentVersion = ++recentVersion;
+        if (recent.size() > MAX_RECENT && !isRebuilding) rebuildIndex();
+    }
+
+    // The entries keep changing on the main thread, so the index is built from snapshots of them
+    private void rebuildIndex() {
+        isRebuilding = true;
+        final List<HistoryEntry.Snapshot> snapshots = new ArrayList<>(entries.size());
+        for (HistoryEntry entry : entries.values()) {
+            snapshots.add(entry.snapshot());
+        }
+        final int snapshotVersion = recentVersion;
+        final int snapshotClearCount = clearCount;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                HistoryIndex built = null;
+                try {
+                    built = new HistoryIndex(snapshots, System.currentTimeMillis());
+                } finally {
+                    // A failed build must not keep all later rebuilds from running
+                    final HistoryIndex rebuilt = built;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            isRebuilding = false;
+                            if (rebuilt == null || clearCount != snapshotClearCount) return;
+                            index = rebuilt;
+                            // Entries changed since the snapshot stay recent
+                            for (Iterator<HistoryEntry> iterator = recent.iterator(); iterator.hasNext(); ) {
+                                HistoryEntry entry = iterator.next();
+                                if (entry.recentVersion <= snapshotVersion) {
+                                    entry.recentVersion = 0;
+                                    iterator.remove();
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // One line per visit or title change: visit count, time, URL and title separated by tabs
+    private void append(int visits, long time, String url, String title) {
+        String line = visits + "\t" + time + "\t" + url + "\t"
+                + (title != null ? title.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ') : "") + "\n";
+        synchronized (pendingLines) {
+            pendingLines.append(line);
+            if (isFlushScheduled) return;
+            isFlushScheduled = true;
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        }, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @WorkerThread
+    private void writePending() {
+        String lines;
+        synchronized (pendingLines) {
+            lines = pendingLines.toString();
+            pendingLines.setLength(0);
+            isFlushScheduled = false;
+        }
+        if (lines.isEmpty()) return;
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            writer.write(lines);
+        } catch (IOException ignored) {
+            // The visits are kept in memory for this session
+        }
+    }
+
+    @WorkerThread
+    private void load() {
+        final Map<String, HistoryEntry> loaded = new LinkedHashMap<>();
+        int lineCount = 0;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineCount++;
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length < 3) continue;
+                    try {
+                        int visits = Integer.parseInt(fields[0]);
+                        long time = Long.parseLong(fields[1]);
+                        String title = (fields.length == 4 ? emptyToNull(fields[3]) : null);
+                        HistoryEntry entry = loaded.get(fields[2]);
+                        if (entry == null) {
+                            loaded.put(fields[2], new HistoryEntry(fields[2], title, visits, time));
+                        } else {
+                            entry.addVisits(visits, time);
+                            if (title != null) entry.setTitle(title);
+                        }
+                    } catch (NumberFormatException ignored) {
+                        // A line cut off by a crash
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+        if (lineCount > 2 * loaded.size() + 1000) compact(loaded.values());
+        List<HistoryEntry.Snapshot> snapshots = new ArrayList<>(loaded.size());
+        for (HistoryEntry entry : loaded.values()) {
+            snapshots.add(entry.snapshot());
+        }
+        final HistoryIndex loadedIndex = new HistoryIndex(snapshots, System.currentTimeMillis());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                onLoaded(loaded, loadedIndex);
+            }
+        });
+    }
+
+    // Rewrite the log with one line per entry
+    @WorkerThread
+    private void compact(Iterable<HistoryEntry> loaded) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            for (HistoryEntry entry : loaded) {
+                writer.write(entry.getVisitCount() + "\t" + entry.getLastVisit() + "\t" + entry.getUrl() + "\t"
+                        + (entry.getTitle() != null ? entry.getTitle() : "") + "\n");
+            }
+        } catch (IOException e) {
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        temporary.renameTo(file);
+    }
+
+    // Pages visited while loading are merged into the loaded entries, which the index refers to
+    @MainThread
+    private void onLoaded(Map<String, HistoryEntry> loaded, HistoryIndex loadedIndex) {
+        if (clearCount != 0) return;
+        for (HistoryEntry entry : loaded.values()) {
+            HistoryEntry visited = entries.put(entry.getUrl(), entry);
+            if (visited == null) continue;
+            entry.addVisits(visited.getVisitCount(), visited.getLastVisit());
+            recent.remove(visited);
+            if (visited.getTitle() != null && !visited.getTitle().equals(entry.getTitle())) {
+                entry.setTitle(visited.getTitle());
+                addRecent(entry);
+            }
+        }
+        index = loadedIndex;
+    }
+}
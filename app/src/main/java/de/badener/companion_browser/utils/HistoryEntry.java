@@ -0,0 +1,120 @@
+package de.badener.companion_browser.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// A visited URL with the number of visits and the time of the last one
+public class HistoryEntry {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final String url;
+    // Lower case host without "www.", suggestions for hosts starting with the input rank higher
+    private final String host;
+    private String title;
+    // Host and lower case title, searched for entries which are not in the index
+    private String keywords;
+    private int visitCount;
+    private long lastVisit;
+    // Number of the last search that collected this entry, so it is only ranked once per search
+    int searchStamp;
+    // Set while the entry is missing from the index or has a title the index does not know yet
+    int recentVersion;
+
+    // The fields the index is built from, taken on the main thread while the entry keeps changing
+    static final class Snapshot {
+        final HistoryEntry entry;
+        final String title;
+        final int visitCount;
+        final long lastVisit;
+
+        private Snapshot(HistoryEntry entry) {
+            this.entry = entry;
+            this.title = entry.title;
+            this.visitCount = entry.visitCount;
+            this.lastVisit = entry.lastVisit;
+        }
+
+        double getFrecency(long now) {
+            return frecency(visitCount, lastVisit, now);
+        }
+    }
+
+    HistoryEntry(String url, String title, int visitCount, long lastVisit) {
+        this.url = url;
+        this.host = hostOf(url);
+        setTitle(title);
+        this.visitCount = visitCount;
+        this.lastVisit = lastVisit;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getVisitCount() {
+        return visitCount;
+    }
+
+    long getLastVisit() {
+        return lastVisit;
+    }
+
+    String getKeywords() {
+        return keywords;
+    }
+
+    void setTitle(String title) {
+        this.title = title;
+        keywords = (title != null ? host + ' ' + title.toLowerCase(Locale.ROOT) : host);
+    }
+
+    void addVisits(int count, long time) {
+        visitCount += count;
+        lastVisit = Math.max(lastVisit, time);
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    double getFrecency(long now) {
+        return frecency(visitCount, lastVisit, now);
+    }
+
+    // Frequency weighted by recency, similar to the frecency of Firefox
+    private static double frecency(int visitCount, long lastVisit, long now) {
+        long days = (now - lastVisit) / DAY_MILLIS;
+        int weight;
+        if (days < 4) {
+            weight = 100;
+        } else if (days < 14) {
+            weight = 70;
+        } else if (days < 31) {
+            weight = 50;
+        } else if (days < 90) {
+            weight = 30;
+        } else {
+            weight = 10;
+        }
+        return visitCount * weight;
+    }
+
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = (start < 0 ? 0 : start + 3);
+        int end = start;
+        while (end < url.length() && "/?#:".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String host = url.substring(start, end).toLowerCase(Locale.ROOT);
+        return (host.startsWith("www.") ? host.substring(4) : host);
+    }
+}
@@ -0,0 +1,185 @@
+package de.badener.companion_browser.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Immutable prefix index over the host labels and title words of history entries. The unique
+// tokens are sorted, so all tokens starting with a prefix form one range found by binary search.
+// Short prefixes match a large part of the history, so for every prefix with more than
+// HOT_THRESHOLD matches the best entries by frecency at build time are kept in advance.
+// The index is built from snapshots of the entries, so it can be built on a background thread.
+class HistoryIndex {
+    static final int HOT_THRESHOLD = 2048;
+    private static final int HOT_SIZE = 64;
+
+    private final String[] tokens;
+    // The entries of tokens[i] are entries[postings[offsets[i]]] until before offsets[i + 1]
+    private final int[] offsets;
+    private final int[] postings;
+    private final HistoryEntry[] entries;
+    // Ids of the best entries for prefixes with many matches
+    private final Map<String, int[]> hotEntries = new HashMap<>();
+
+    HistoryIndex(List<HistoryEntry.Snapshot> snapshots, long now) {
+        entries = new HistoryEntry[snapshots.size()];
+        // The tokens of every entry, each entry is only tokenized once
+        String[][] entryTokens = new String[entries.length][];
+        Map<String, int[]> counts = new HashMap<>();
+        List<String> tokenList = new ArrayList<>();
+        int total = 0;
+        for (int id = 0; id < entries.length; id++) {
+            HistoryEntry.Snapshot snapshot = snapshots.get(id);
+            entries[id] = snapshot.entry;
+            tokenList.clear();
+            tokenize(snapshot, tokenList);
+            entryTokens[id] = tokenList.toArray(new String[0]);
+            for (String token : entryTokens[id]) {
+                int[] count = counts.get(token);
+                if (count == null) counts.put(token, new int[]{1});
+                else count[0]++;
+            }
+            total += entryTokens[id].length;
+        }
+
+        tokens = counts.keySet().toArray(new String[0]);
+        Arrays.sort(tokens);
+        offsets = new int[tokens.length + 1];
+        for (int i = 0; i < tokens.length; i++) {
+            int[] count = counts.get(tokens[i]);
+            offsets[i + 1] = offsets[i] + count[0];
+            // Reuse the count as the next free position of the token
+            count[0] = offsets[i];
+        }
+        postings = new int[total];
+        for (int id = 0; id < entries.length; id++) {
+            for (String token : entryTokens[id]) {
+                postings[counts.get(token)[0]++] = id;
+            }
+        }
+        buildHotEntries(snapshots, now);
+    }
+
+    // Prefixes of one length form contiguous token ranges, longer prefixes are only
+    // checked within ranges of shorter ones that were hot
+    private void buildHotEntries(List<HistoryEntry.Snapshot> snapshots, long now) {
+        int[] seen = new int[entries.length];
+        int stamp = 0;
+        List<int[]> ranges = new ArrayList<>();
+        ranges.add(new int[]{0, tokens.length});
+        for (int length = 1; !ranges.isEmpty(); length++) {
+            List<int[]> hotRanges = new ArrayList<>();
+            for (int[] range : ranges) {
+                int start = range[0];
+                while (start < range[1]) {
+                    if (tokens[start].length() < length) {
+                        start++;
+                        continue;
+                    }
+                    String prefix = tokens[start].substring(0, length);
+                    int end = start + 1;
+                    while (end < range[1] && tokens[end].startsWith(prefix)) {
+                        end++;
+                    }
+                    if (offsets[end] - offsets[start] > HOT_THRESHOLD) {
+                        hotEntries.put(prefix, best(snapshots, prefix, start, end, seen, ++stamp, now));
+                        hotRanges.add(new int[]{start, end});
+                    }
+                    start = end;
+                }
+            }
+            ranges = hotRanges;
+        }
+    }
+
+    private int[] best(List<HistoryEntry.Snapshot> snapshots, String prefix, int startToken, int endToken,
+                       int[] seen, int stamp, long now) {
+        int[] ids = new int[HOT_SIZE];
+        double[] scores = new double[HOT_SIZE];
+        int size = 0;
+        for (int posting = offsets[startToken]; posting < offsets[endToken]; posting++) {
+            int id = postings[posting];
+            if (seen[id] == stamp) continue;
+            seen[id] = stamp;
+            HistoryEntry.Snapshot snapshot = snapshots.get(id);
+            double score = HistorySearch.score(snapshot.entry.getHost(), snapshot.getFrecency(now), prefix);
+            if (size == HOT_SIZE && score <= scores[size - 1]) continue;
+            int i = (size < HOT_SIZE ? size++ : size - 1);
+            for (; i > 0 && scores[i - 1] < score; i--) {
+                ids[i] = ids[i - 1];
+                scores[i] = scores[i - 1];
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    // Index of the first token not less than the prefix
+    int lowerBound(String prefix) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Index after the last token starting with the prefix
+    int upperBound(String prefix) {
+        return lowerBound(prefix + Character.MAX_VALUE);
+    }
+
+    // Number of postings of the tokens in [startToken, endToken)
+    int postingCount(int startToken, int endToken) {
+        return offsets[endToken] - offsets[startToken];
+    }
+
+    // Ids of the best entries for the prefix, or null if the prefix has few enough matches to check them all
+    int[] getHotEntries(String prefix) {
+        return hotEntries.get(prefix);
+    }
+
+    HistoryEntry getEntry(int id) {
+        return entries[id];
+    }
+
+    int firstPosting(int token) {
+        return offsets[token];
+    }
+
+    HistoryEntry getPosting(int posting) {
+        return entries[postings[posting]];
+    }
+
+    // Distinct lower case host labels and title words of the entry
+    static void tokenize(HistoryEntry.Snapshot snapshot, List<String> out) {
+        split(snapshot.entry.getHost(), out);
+        if (snapshot.title != null) split(snapshot.title.toLowerCase(Locale.ROOT), out);
+    }
+
+    // Split into runs of letters and digits, skipping duplicates
+    static void split(String text, List<String> out) {
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            String token = text.substring(start, i);
+            if (!out.contains(token)) out.add(token);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.badener.companion_browser.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Finds the history entries with a host label or title word starting with every word of the
+// input. The word with the fewest matches is looked up in the index, the others are checked
+// on its matches. Words with many matches use the best entries kept by the index.
+class HistorySearch {
+    private int stamp;
+
+    List<HistoryEntry> search(HistoryIndex index, List<HistoryEntry> recent, String input, long now, int limit) {
+        List<String> terms = terms(input);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        stamp++;
+        Ranking ranking = new Ranking(limit);
+        if (index != null) {
+            // Pick the rarest word
+            String rarest = null;
+            int start = 0;
+            int end = 0;
+            for (String term : terms) {
+                int termStart = index.lowerBound(term);
+                int termEnd = index.upperBound(term);
+                if (rarest == null || index.postingCount(termStart, termEnd) < index.postingCount(start, end)) {
+                    rarest = term;
+                    start = termStart;
+                    end = termEnd;
+                }
+            }
+            int[] hotEntries = index.getHotEntries(rarest);
+            if (hotEntries != null) {
+                for (int id : hotEntries) {
+                    consider(index.getEntry(id), terms, now, ranking);
+                }
+            }
+            // The kept entries may not match the other words, then all matches are checked
+            if (hotEntries == null || (ranking.size() < limit && terms.size() > 1)) {
+                for (int posting = index.firstPosting(start); posting < index.firstPosting(end); posting++) {
+                    consider(index.getPosting(posting), terms, now, ranking);
+                }
+            }
+        }
+        for (HistoryEntry entry : recent) {
+            consider(entry, terms, now, ranking);
+        }
+        return ranking.toList();
+    }
+
+    private void consider(HistoryEntry entry, List<String> terms, long now, Ranking ranking) {
+        if (entry.searchStamp == stamp) {
+            return;
+        }
+        entry.searchStamp = stamp;
+        for (String term : terms) {
+            if (!hasWordStartingWith(entry.getKeywords(), term)) return;
+        }
+        ranking.offer(entry, score(entry, terms.get(0), now));
+    }
+
+    static double score(HistoryEntry entry, String firstTerm, long now) {
+        return score(entry.getHost(), entry.getFrecency(now), firstTerm);
+    }
+
+    static double score(String host, double frecency, String firstTerm) {
+        // Typing the beginning of a host is the most common way to revisit a site
+        return (host.startsWith(firstTerm) ? frecency * 2 : frecency);
+    }
+
+    private static boolean hasWordStartingWith(String text, String prefix) {
+        for (int i = text.indexOf(prefix); i >= 0; i = text.indexOf(prefix, i + 1)) {
+            if (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) return true;
+        }
+        return false;
+    }
+
+    // Lower case words of the input, without the scheme and "www." of a typed URL
+    static List<String> terms(String input) {
+        String text = input.trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("https://")) {
+            text = text.substring(8);
+        } else if (text.startsWith("http://")) {
+            text = text.substring(7);
+        }
+        if (text.startsWith("www.")) {
+            text = text.substring(4);
+        }
+        List<String> terms = new ArrayList<>();
+        HistoryIndex.split(text, terms);
+        return terms;
+    }
+
+    // The best entries so far, sorted by descending score
+    private static final class Ranking {
+        private final HistoryEntry[] entries;
+        private final double[] scores;
+        private int size;
+
+        Ranking(int limit) {
+            entries = new HistoryEntry[limit];
+            scores = new double[limit];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void offer(HistoryEntry entry, double score) {
+            if (size == entries.length && score <= scores[size - 1]) {
+                return;
+            }
+            int i = (size < entries.length ? size++ : size - 1);
+            for (; i > 0 && scores[i - 1] < score; i--) {
+                entries[i] = entries[i - 1];
+                scores[i] = scores[i - 1];
+            }
+            entries[i] = entry;
+            scores[i] = score;
+        }
+
+        List<HistoryEntry> toList() {
+            return Arrays.asList(Arrays.copyOf(entries, size));
+        }
+    }
+}
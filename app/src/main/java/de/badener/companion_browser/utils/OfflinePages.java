@@ -0,0 +1,304 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Pages saved for offline reading as web archives, one file per URL that is replaced when the page is
+// saved again. Archives of the same page differ in every save, so they are not shared. The index of
+// URL, title, size and times is kept in memory in least recently used order and the oldest pages are
+// removed when the archives exceed the disk budget. Files and the index are written on a background thread.
+public class OfflinePages {
+    private static final String DIRECTORY = "offline";
+    private static final String INDEX_FILE = "index.txt";
+    private static final String EXTENSION = ".mht";
+
+    public interface Callback {
+        // Called on the main thread, page is null if the page could not be saved
+        void onSaved(Page page);
+    }
+
+    public static final class Page {
+        private final String url;
+        private final String title;
+        private final String fileName;
+        private final long size;
+        private final long savedTime;
+
+        Page(String url, String title, String fileName, long size, long savedTime) {
+            this.url = url;
+            this.title = title;
+            this.fileName = fileName;
+            this.size = size;
+            this.savedTime = savedTime;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getSavedTime() {
+            return savedTime;
+        }
+    }
+
+    private final File directory;
+    private final long budgetBytes;
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("OfflinePages"));
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this, pages by URL from the least to the most recently used
+    private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    public OfflinePages(Context context, long budgetBytes) {
+        this.directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+        this.budgetBytes = budgetBytes;
+        // Runs before any save, the executor has a single thread
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    // Save the page shown in the WebView, a saved page of the same URL is replaced
+    @MainThread
+    public void save(WebView view, final Callback callback) {
+        final String url = view.getUrl();
+        final String title = view.getTitle();
+        if (url == null || !directory.isDirectory() && !directory.mkdirs()) {
+            callback.onSaved(null);
+            return;
+        }
+        final File temporary = new File(directory, System.nanoTime() + EXTENSION + ".tmp");
+        view.saveWebArchive(temporary.getPath(), false, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String path) {
+                if (path == null || executor.isShutdown()) {
+                    //noinspection ResultOfMethodCallIgnored
+                    temporary.delete();
+                    callback.onSaved(null);
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Page page = store(url, title, temporary);
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onSaved(page);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    // Saved pages, the most recently saved first
+    public List<Page> getPages() {
+        List<Page> list;
+        synchronized (this) {
+            list = new ArrayList<>(pages.values());
+        }
+        Collections.sort(list, new Comparator<Page>() {
+            @Override
+            public int compare(Page a, Page b) {
+                return Long.compare(b.savedTime, a.savedTime);
+            }
+        });
+        return list;
+    }
+
+    // The file URL of the archive, which loads without network access, or null if it is not saved
+    public String open(Page page) {
+        synchronized (this) {
+            if (pages.get(page.url) != page) return null;
+        }
+        writeIndexLater();
+        return Uri.fromFile(new File(directory, page.fileName)).toString();
+    }
+
+    public void delete(final Page page) {
+        if (executor.isShutdown()) return;
+        synchronized (this) {
+            if (pages.get(page.url) != page) return;
+            pages.remove(page.url);
+            totalSize -= page.size;
+        }
+        // Saves run on the executor as well, so a new archive of the URL is not deleted
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //noinspection ResultOfMethodCallIgnored
+                new File(directory, page.fileName).delete();
+                writeIndex();
+            }
+        });
+    }
+
+    // Stop the background thread once the saves and index writes already started are done
+    @MainThread
+    public void close() {
+        executor.shutdown();
+    }
+
+    @WorkerThread
+    private Page store(String url, String title, File temporary) {
+        File archive = new File(directory, fileNameOf(url));
+        if (!temporary.renameTo(archive)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            return null;
+        }
+        Page page = new Page(url, (title != null ? title : url), archive.getName(), archive.length(),
+                System.currentTimeMillis());
+        List<Page> removed = new ArrayList<>();
+        synchronized (this) {
+            Page previous = pages.put(url, page);
+            if (previous != null) totalSize -= previous.size;
+            totalSize += page.size;
+            // The oldest pages are removed first, never the one just saved
+            Iterator<Page> iterator = pages.values().iterator();
+            while (totalSize > budgetBytes && iterator.hasNext()) {
+                Page eldest = iterator.next();
+                if (eldest == page) break;
+                iterator.remove();
+                totalSize -= eldest.size;
+                removed.add(eldest);
+            }
+        }
+        for (Page eldest : removed) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(directory, eldest.fileName).delete();
+        }
+        writeIndex();
+        return page;
+    }
+
+    // The same file for every save of a URL, URLs are too long and contain characters file names can't
+    private static String fileNameOf(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest(url.getBytes(StandardCharsets.UTF_8))) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.append(EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Lines of file name, size, saved time, URL and title from the least to the most recently used
+    @WorkerThread
+    private void load() {
+        File index = new File(directory, INDEX_FILE);
+        Set<String> fileNames = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 5 || !new File(directory, fields[0]).isFile()) continue;
+                try {
+                    Page page = new Page(fields[3], fields[4], fields[0], Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]));
+                    synchronized (this) {
+                        pages.put(page.url, page);
+                        totalSize += page.size;
+                    }
+                    fileNames.add(page.fileName);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        // Archives not in the index and saves interrupted before, a save may already be running
+        long interruptedBefore = System.currentTimeMillis() - 3600000;
+        File[] files = directory.listFiles();
+        for (File file : (files != null ? files : new File[0])) {
+            String name = file.getName();
+            boolean isUnused;
+            if (name.endsWith(EXTENSION)) {
+                isUnused = !fileNames.contains(name);
+            } else {
+                isUnused = name.endsWith(".tmp") && file.lastModified() < interruptedBefore;
+            }
+            if (isUnused) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private void writeIndexLater() {
+        if (executor.isShutdown()) return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        });
+    }
+
+    @WorkerThread
+    private void writeIndex() {
+        StringBuilder lines = new StringBuilder();
+        synchronized (this) {
+            for (Page page : pages.values()) {
+                lines.append(page.fileName).append('\t').append(page.size).append('\t').append(page.savedTime)
+                        .append('\t').append(page.url.replace('\t', ' ').replace('\n', ' ')).append('\t')
+                        .append(page.title.replace('\t', ' ').replace('\n', ' ')).append('\n');
+            }
+        }
+        File temporary = new File(directory, INDEX_FILE + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            writer.write(lines.toString());
+        } catch (IOException e) {
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        temporary.renameTo(new File(directory, INDEX_FILE));
+    }
+}
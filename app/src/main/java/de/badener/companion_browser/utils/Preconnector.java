@@ -0,0 +1,168 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.webkit.WebView;
+
+import androidx.annotation.MainThread;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Warms up the connection to the page the search field input will probably lead to, so that DNS,
+// TCP and TLS are done before Go is pressed. WebView has no API for this, so a hidden WebView loads
+// a blank document with preconnect hints. All WebViews of the app share one network stack.
+// Creating the WebView takes long, so it is created when the window is idle after the search opens.
+@MainThread
+public class Preconnector {
+    private static final long DEBOUNCE_MILLIS = 300;
+    private static final int MAX_PER_SEARCH = 4;
+    // Chromium closes unused preconnected sockets after about ten seconds
+    private static final long CONNECTION_LIFETIME_MILLIS = 10000;
+
+    // Shared by all windows, exported with the statistics
+    private static final AtomicLong preconnects = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong wasted = new AtomicLong();
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Preconnected origins with the time of the preconnect
+    private final Map<String, Long> origins = new HashMap<>();
+    private int searchCount;
+    private WebView webView;
+    private String pendingOrigin;
+    // Waiting for the WebView to be created
+    private String idleOrigin;
+    private boolean isCreationScheduled;
+    // Released for memory, not created again until the next search
+    private boolean isTrimmed;
+
+    private final MessageQueue.IdleHandler createWebView = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            isCreationScheduled = false;
+            if (webView == null) webView = new WebView(context);
+            if (idleOrigin != null) load(idleOrigin);
+            idleOrigin = null;
+            return false;
+        }
+    };
+
+    private final Runnable preconnect = new Runnable() {
+        @Override
+        public void run() {
+            String origin = pendingOrigin;
+            pendingOrigin = null;
+            if (origin == null || isTrimmed || origins.containsKey(origin) || searchCount >= MAX_PER_SEARCH) return;
+            searchCount++;
+            origins.put(origin, SystemClock.uptimeMillis());
+            preconnects.incrementAndGet();
+            if (webView != null) {
+                load(origin);
+            } else {
+                idleOrigin = origin;
+                scheduleCreation();
+            }
+        }
+    };
+
+    public Preconnector(Context context) {
+        this.context = context;
+    }
+
+    // Called when the search field gets the focus
+    public void onSearchOpened() {
+        isTrimmed = false;
+        if (webView == null) scheduleCreation();
+    }
+
+    // Called with the URL the current input would load, the last one within the debounce time wins
+    public void onInput(String url) {
+        expire();
+        handler.removeCallbacks(preconnect);
+        pendingOrigin = originOf(url);
+        if (pendingOrigin != null) handler.postDelayed(preconnect, DEBOUNCE_MILLIS);
+    }
+
+    // Called when a URL is loaded from the search field
+    public void onNavigate(String url) {
+        handler.removeCallbacks(preconnect);
+        expire();
+        if (origins.remove(originOf(url)) != null) hits.incrementAndGet();
+    }
+
+    // Preconnects that did not lead to a navigation are counted as wasted
+    public void onSearchClosed() {
+        handler.removeCallbacks(preconnect);
+        pendingOrigin = null;
+        idleOrigin = null;
+        searchCount = 0;
+        wasted.addAndGet(origins.size());
+        origins.clear();
+    }
+
+    // Release the WebView when memory is low, typing does not create it again
+    public void trim() {
+        isTrimmed = true;
+        destroy();
+    }
+
+    public void destroy() {
+        onSearchClosed();
+        if (isCreationScheduled) {
+            Looper.myQueue().removeIdleHandler(createWebView);
+            isCreationScheduled = false;
+        }
+        if (webView != null) {
+            webView.destroy();
+            webView = null;
+        }
+    }
+
+    private void scheduleCreation() {
+        if (isCreationScheduled) return;
+        isCreationScheduled = true;
+        Looper.myQueue().addIdleHandler(createWebView);
+    }
+
+    private void load(String origin) {
+        String href = TextUtils.htmlEncode(origin);
+        webView.loadDataWithBaseURL(null, "<link rel=\"dns-prefetch\" href=\"" + href + "\">"
+                + "<link rel=\"preconnect\" href=\"" + href + "\">", "text/html", "utf-8", null);
+    }
+
+    // Origins whose connection has been closed again can be preconnected again
+    private void expire() {
+        long now = SystemClock.uptimeMillis();
+        for (Iterator<Long> iterator = origins.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next() > CONNECTION_LIFETIME_MILLIS) {
+                iterator.remove();
+                wasted.incrementAndGet();
+            }
+        }
+    }
+
+    private static String originOf(String url) {
+        if (url == null) return null;
+        Uri uri = Uri.parse(url);
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (host == null || !("https".equals(scheme) || "http".equals(scheme))) return null;
+        return scheme + "://" + host + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+    }
+
+    // {"preconnects":12,"hits":7,"wasted":5}
+    public static void appendJson(StringBuilder json) {
+        json.append("{\"preconnects\":").append(preconnects.get())
+                .append(",\"hits\":").append(hits.get())
+                .append(",\"wasted\":").append(wasted.get()).append('}');
+    }
+}
@@ -0,0 +1,95 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import de.badener.companion_browser.blocking.RequestTrace;
+
+// Request traces of page loads for the replay benchmark of the benchmark module. They contain the full
+// URLs of all requests, so they are only recorded when turned on explicitly, kept in the private files
+// of the app and deleted with the browsing data. Debug builds can pull them with
+// adb exec-out run-as <package> tar c files/traces | tar x
+public class RequestTraces {
+    private static final String KEY_ENABLED = "request_traces";
+    private static final String DIRECTORY = "traces";
+    private static final int MAX_TRACES = 50;
+    private static final Executor WRITER =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("RequestTraces"));
+
+    private static volatile boolean isEnabled;
+
+    private RequestTraces() {
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public static void load(SharedPreferences preferences) {
+        isEnabled = preferences.getBoolean(KEY_ENABLED, false);
+    }
+
+    public static void setEnabled(SharedPreferences preferences, boolean enabled) {
+        isEnabled = enabled;
+        preferences.edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    public static void save(Context context, final RequestTrace trace) {
+        final File directory = directoryOf(context);
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (directory.isDirectory() || directory.mkdirs()) write(directory, trace);
+            }
+        });
+    }
+
+    // Runs after traces that are still being written
+    public static void clear(Context context) {
+        final File directory = directoryOf(context);
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] traces = directory.listFiles();
+                if (traces == null) return;
+                for (File trace : traces) {
+                    trace.delete();
+                }
+            }
+        });
+    }
+
+    private static File directoryOf(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+    }
+
+    @WorkerThread
+    private static void write(File directory, RequestTrace trace) {
+        File file = new File(directory, System.currentTimeMillis() + ".trace");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            trace.writeTo(writer);
+        } catch (IOException e) {
+            file.delete();
+            return;
+        }
+        // Names are timestamps, the oldest traces are deleted first
+        File[] traces = directory.listFiles();
+        if (traces == null || traces.length <= MAX_TRACES) return;
+        Arrays.sort(traces);
+        for (int i = 0; i < traces.length - MAX_TRACES; i++) {
+            traces[i].delete();
+        }
+    }
+}
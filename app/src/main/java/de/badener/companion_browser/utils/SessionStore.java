@@ -0,0 +1,235 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Snapshot of the open tabs with the saved state of their WebViews, which includes the history
+// and scroll positions. The snapshot is written on a background thread to a temporary file that
+// replaces the previous one, so a crash while writing keeps the previous snapshot. The states are
+// parcels, which are only readable by the same system, so they are dropped after a system update.
+public class SessionStore {
+    private static final String SESSION_FILE = "session.bin";
+    private static final int MAGIC = 0x53455353;
+    private static final int VERSION = 2;
+
+    // Reading and writing run on one thread, so a read never sees a partial write
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("SessionStore"));
+    private static Future<Session> loading;
+
+    public static class SavedTab {
+        public final String url;
+        public final String title;
+        public final Bundle state;
+
+        SavedTab(String url, String title, Bundle state) {
+            this.url = url;
+            this.title = title;
+            this.state = state;
+        }
+    }
+
+    public static class Session {
+        public final List<SavedTab> tabs = new ArrayList<>();
+        public int currentIndex;
+    }
+
+    // Start reading the snapshot, so it is ready when the window is created
+    public static synchronized Future<Session> preload(Context context) {
+        if (loading == null) {
+            final File file = sessionFile(context);
+            loading = EXECUTOR.submit(new Callable<Session>() {
+                @Override
+                public Session call() {
+                    return read(file);
+                }
+            });
+        }
+        return loading;
+    }
+
+    // The snapshot saved last or null if there is none or it cannot be read
+    @MainThread
+    public static Session load(Context context) {
+        Future<Session> session = preload(context);
+        synchronized (SessionStore.class) {
+            // Do not keep the states in memory, a later load reads the file again
+            loading = null;
+        }
+        try {
+            return session.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    // The WebView states are taken on the main thread, compressing and writing is done in the background
+    @MainThread
+    public static void save(Context context, TabManager tabManager) {
+        List<Tab> tabs = tabManager.getTabs();
+        final List<SavedTab> savedTabs = new ArrayList<>(tabs.size());
+        for (Tab tab : tabs) {
+            savedTabs.add(new SavedTab(tab.getUrl(), tab.getTitle(), tab.saveState()));
+        }
+        final int currentIndex = Math.max(0, tabs.indexOf(tabManager.getCurrentTab()));
+        // Bundles are not thread safe, marshall them before handing them over
+        final List<byte[]> states = new ArrayList<>(savedTabs.size());
+        for (SavedTab tab : savedTabs) {
+            states.add(marshall(tab.state));
+        }
+        final File file = sessionFile(context);
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, savedTabs, states, currentIndex);
+            }
+        });
+    }
+
+    public static void delete(Context context) {
+        final File file = sessionFile(context);
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        });
+    }
+
+    private static File sessionFile(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), SESSION_FILE);
+    }
+
+    private static byte[] marshall(Bundle state) {
+        if (state == null) {
+            return new byte[0];
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(state);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Bundle unmarshall(byte[] bytes) {
+        if (bytes.length == 0) {
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            Bundle state = parcel.readBundle(SessionStore.class.getClassLoader());
+            // Bundles are read lazily, read the contents now so that errors are caught here
+            if (state != null) state.size();
+            return state;
+        } catch (RuntimeException e) {
+            // Written by an incompatible version, the tab loads its URL instead
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @WorkerThread
+    private static void write(File file, List<SavedTab> tabs, List<byte[]> states, int currentIndex) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary);
+             GZIPOutputStream compressed = new GZIPOutputStream(stream);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(compressed))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            writeString(output, Build.FINGERPRINT);
+            output.writeInt(currentIndex);
+            output.writeInt(tabs.size());
+            for (int i = 0; i < tabs.size(); i++) {
+                writeString(output, tabs.get(i).url);
+                writeString(output, tabs.get(i).title);
+                writeBytes(output, states.get(i));
+            }
+            // On disk before it replaces the previous snapshot
+            output.flush();
+            compressed.finish();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        temporary.renameTo(file);
+    }
+
+    @WorkerThread
+    private static Session read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            // The tabs load their URLs again if the system has been updated since
+            boolean isSameSystem = readString(input).equals(Build.FINGERPRINT);
+            Session session = new Session();
+            session.currentIndex = input.readInt();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = readString(input);
+                String title = readString(input);
+                byte[] state = readBytes(input);
+                session.tabs.add(new SavedTab(url, title, (isSameSystem ? unmarshall(state) : null)));
+            }
+            return (session.tabs.isEmpty() ? null : session);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, (value != null ? value : "").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return new String(readBytes(input), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,135 @@
+package de.badener.companion_browser.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.badener.companion_browser.blocking.ResourceType;
+import de.badener.companion_browser.blocking.SubresourceCache;
+
+// Serves scripts, stylesheets, images and fonts of selected sites from the SubresourceCache.
+// Sites are selected from the menu.
+public class SiteCache {
+    private static final String DIRECTORY = "subresources";
+    private static final long MAX_BYTES = 50 * 1024 * 1024;
+    private static final String KEY_SITES = "cached_sites";
+    private static final int CACHED_TYPES =
+            ResourceType.SCRIPT | ResourceType.STYLESHEET | ResourceType.IMAGE | ResourceType.FONT;
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(BackgroundThreads.newThreadFactory("SiteCache"));
+
+    private static SubresourceCache cache;
+    // Replaced on changes, read on WebView's I/O threads
+    private static volatile Set<String> sites = Collections.emptySet();
+
+    private SiteCache() {
+    }
+
+    // Read the index in the background, requests go to the network until it is loaded
+    public static synchronized void init(Context context) {
+        if (cache != null) return;
+        final SubresourceCache created = new SubresourceCache(
+                new File(context.getApplicationContext().getCacheDir(), DIRECTORY), MAX_BYTES, EXECUTOR,
+                new SubresourceCache.Cookies() {
+                    @Override
+                    public String get(String url) {
+                        return CookieManager.getInstance().getCookie(url);
+                    }
+
+                    @Override
+                    public void set(String url, List<String> values) {
+                        for (String value : values) {
+                            CookieManager.getInstance().setCookie(url, value);
+                        }
+                    }
+                });
+        cache = created;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    created.load();
+                } catch (IOException ignored) {
+                    // Without its directory the cache stays empty and requests go to the network
+                }
+            }
+        });
+    }
+
+    public static void loadSites(SharedPreferences preferences) {
+        sites = Collections.unmodifiableSet(new HashSet<>(preferences.getStringSet(KEY_SITES, new HashSet<String>())));
+    }
+
+    // The rule of a site also applies to its subdomains
+    public static boolean isCached(String host) {
+        Set<String> current = sites;
+        if (host == null || current.isEmpty()) {
+            return false;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        int start = 0;
+        while (true) {
+            if (current.contains(start == 0 ? host : host.substring(start))) return true;
+            int dot = host.indexOf('.', start);
+            if (dot < 0) return false;
+            start = dot + 1;
+        }
+    }
+
+    public static synchronized void setCached(SharedPreferences preferences, String host, boolean isCached) {
+        Set<String> updated = new HashSet<>(sites);
+        if (isCached) {
+            updated.add(host.toLowerCase(Locale.ROOT));
+        } else {
+            updated.remove(host.toLowerCase(Locale.ROOT));
+        }
+        sites = Collections.unmodifiableSet(updated);
+        preferences.edit().putStringSet(KEY_SITES, updated).apply();
+    }
+
+    // The response for a subresource of a cached site or null if the WebView should load it itself
+    public static WebResourceResponse get(WebResourceRequest request, String pageHost, int type) {
+        SubresourceCache current = cache;
+        if (current == null || request.isForMainFrame() || (type & CACHED_TYPES) == 0
+                || !"GET".equals(request.getMethod()) || !isCached(pageHost)) {
+            return null;
+        }
+        String scheme = request.getUrl().getScheme();
+        if (!"https".equals(scheme) && !"http".equals(scheme)) {
+            return null;
+        }
+        SubresourceCache.Response response = current.get(request.getUrl().toString(), request.getRequestHeaders(),
+                pageHost);
+        if (response == null) {
+            return null;
+        }
+        return new WebResourceResponse(response.getMimeType(), response.getEncoding(), response.getStatusCode(),
+                response.getReasonPhrase(), response.getHeaders(), response.getData());
+    }
+
+    public static void clear() {
+        SubresourceCache current = cache;
+        if (current != null) current.clear();
+    }
+
+    public static void appendJson(StringBuilder json) {
+        SubresourceCache current = cache;
+        if (current == null) {
+            json.append("null");
+        } else {
+            current.appendJson(json);
+        }
+    }
+}
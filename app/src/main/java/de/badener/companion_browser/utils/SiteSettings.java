@@ -0,0 +1,70 @@
+package de.badener.companion_browser.utils;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.badener.companion_browser.blocking.SiteLoadTimes;
+import de.badener.companion_browser.blocking.SiteProfiles;
+
+// The site profiles of the app, stored as "host=profile" entries for the sites that differ from
+// the default, and the load times of recent sites with and without the lite profile.
+public class SiteSettings {
+    private static final String KEY_PROFILES = "site_profiles";
+    private static final int LOAD_TIMES_CAPACITY = 100;
+    private static final SiteProfiles PROFILES = new SiteProfiles();
+    private static final SiteLoadTimes LOAD_TIMES = new SiteLoadTimes(LOAD_TIMES_CAPACITY);
+
+    private SiteSettings() {
+    }
+
+    // All entries are parsed first and published together, so the table is only built once
+    public static void load(SharedPreferences preferences) {
+        Map<String, Integer> profiles = new HashMap<>();
+        for (String site : preferences.getStringSet(KEY_PROFILES, new HashSet<String>())) {
+            int separator = site.lastIndexOf('=');
+            if (separator <= 0) continue;
+            try {
+                profiles.put(site.substring(0, separator), Integer.parseInt(site.substring(separator + 1)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        PROFILES.setAll(profiles);
+    }
+
+    public static int getProfile(String host) {
+        return PROFILES.get(host);
+    }
+
+    // The profile of the host in text[start, end), e.g. found with UrlHosts in a URL
+    public static int getProfile(CharSequence text, int start, int end) {
+        return PROFILES.get(text, start, end);
+    }
+
+    // A site with the default profile does not need its own entry
+    public static void setProfile(SharedPreferences preferences, String host, int profile) {
+        if (profile == SiteProfiles.DEFAULT) {
+            PROFILES.remove(host);
+        } else {
+            PROFILES.set(host, profile);
+        }
+        Set<String> sites = new HashSet<>();
+        for (Map.Entry<String, Integer> site : PROFILES.getSites().entrySet()) {
+            sites.add(site.getKey() + "=" + site.getValue());
+        }
+        preferences.edit().putStringSet(KEY_PROFILES, sites).apply();
+    }
+
+    public static SiteLoadTimes getLoadTimes() {
+        return LOAD_TIMES;
+    }
+
+    public static void appendJson(StringBuilder json) {
+        json.append("{\"sites\":").append(PROFILES.getSites().size()).append(",\"loadTimes\":");
+        LOAD_TIMES.appendJson(json);
+        json.append('}');
+    }
+}
@@ -0,0 +1,104 @@
+package de.badener.companion_browser.utils;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.badener.companion_browser.BuildConfig;
+
+// Timestamps of the startup phases of a window. For the first window of the process they are
+// relative to the start of the process, otherwise to the creation of the window. Release builds keep them
+// in memory for the statistics only, debug builds also log them.
+public class StartupTrace {
+    public static final String APPLICATION_CREATED = "application_created";
+    public static final String WEBVIEW_WARMED = "webview_warmed";
+    public static final String ACTIVITY_CREATED = "activity_created";
+    public static final String CONTENT_VIEW_SET = "content_view_set";
+    public static final String FIRST_DRAW = "first_draw";
+    public static final String DEFERRED_INIT_DONE = "deferred_init_done";
+    public static final String FIRST_PAINT = "first_paint";
+    public static final String PAGE_LOADED = "page_loaded";
+
+    private static final String TAG = "StartupTrace";
+    private static final long PROCESS_START_MILLIS = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ?
+            Process.getStartUptimeMillis() : SystemClock.uptimeMillis());
+    // Phases of the application, before and in parallel to the first window
+    private static final Map<String, Long> PROCESS_PHASES = new LinkedHashMap<>();
+    private static boolean hasWindow;
+    private static StartupTrace latest;
+
+    private final boolean isColdStart;
+    private final long originMillis;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private StartupTrace(boolean isColdStart, long originMillis) {
+        this.isColdStart = isColdStart;
+        this.originMillis = originMillis;
+    }
+
+    public static void markProcess(String phase) {
+        long time = SystemClock.uptimeMillis() - PROCESS_START_MILLIS;
+        synchronized (StartupTrace.class) {
+            if (PROCESS_PHASES.containsKey(phase)) return;
+            PROCESS_PHASES.put(phase, time);
+        }
+        if (BuildConfig.DEBUG) Log.i(TAG, phase + ": " + time + " ms after process start");
+    }
+
+    // Start the trace of a new window
+    public static synchronized StartupTrace begin() {
+        latest = (hasWindow ? new StartupTrace(false, SystemClock.uptimeMillis())
+                : new StartupTrace(true, PROCESS_START_MILLIS));
+        hasWindow = true;
+        latest.mark(ACTIVITY_CREATED);
+        return latest;
+    }
+
+    // Only the first time of every phase is recorded
+    public void mark(String phase) {
+        long time = SystemClock.uptimeMillis() - originMillis;
+        synchronized (this) {
+            if (phases.containsKey(phase)) return;
+            phases.put(phase, time);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.i(TAG, phase + ": " + time + " ms" + (isColdStart ? " after process start" : " after window creation"));
+        }
+    }
+
+    // The trace of the most recent window, {"coldStart":true,"phases":{"application_created":42,...}}
+    public static void appendLatestJson(StringBuilder json) {
+        StartupTrace trace;
+        synchronized (StartupTrace.class) {
+            trace = latest;
+        }
+        if (trace == null) {
+            json.append("null");
+            return;
+        }
+        json.append("{\"coldStart\":").append(trace.isColdStart).append(",\"phases\":{");
+        boolean isFirst = true;
+        if (trace.isColdStart) {
+            synchronized (StartupTrace.class) {
+                isFirst = appendPhases(json, PROCESS_PHASES, isFirst);
+            }
+        }
+        synchronized (trace) {
+            appendPhases(json, trace.phases, isFirst);
+        }
+        json.append("}}");
+    }
+
+    private static boolean appendPhases(StringBuilder json, Map<String, Long> phases, boolean isFirst) {
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (!isFirst) json.append(',');
+            json.append('"').append(phase.getKey()).append("\":").append(phase.getValue());
+            isFirst = false;
+        }
+        return isFirst;
+    }
+}
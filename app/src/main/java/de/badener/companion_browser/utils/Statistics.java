@@ -0,0 +1,41 @@
+package de.badener.companion_browser.utils;
+
+import de.badener.companion_browser.blocking.NavigationLog;
+
+// Switch and storage of the page load statistics, nothing is recorded while they are disabled
+public class Statistics {
+    private static final NavigationLog NAVIGATION_LOG = new NavigationLog(20);
+    private static volatile boolean isEnabled;
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+        if (!enabled) NAVIGATION_LOG.clear();
+    }
+
+    public static NavigationLog getNavigationLog() {
+        return NAVIGATION_LOG;
+    }
+
+    // Startup phases of the latest window, preconnect counters and the recent navigations
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"startup\":");
+        StartupTrace.appendLatestJson(json);
+        json.append(",\"speculation\":");
+        Preconnector.appendJson(json);
+        json.append(",\"downloads\":");
+        Downloads.appendJson(json);
+        json.append(",\"dataSaver\":");
+        DataSaving.appendJson(json);
+        json.append(",\"subresourceCache\":");
+        SiteCache.appendJson(json);
+        json.append(",\"siteSettings\":");
+        SiteSettings.appendJson(json);
+        json.append(",\"navigations\":");
+        NAVIGATION_LOG.appendJson(json);
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,173 @@
+package de.badener.companion_browser.utils;
+
+import android.os.Bundle;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+
+import de.badener.companion_browser.blocking.DataSaver;
+import de.badener.companion_browser.blocking.NavigationStats;
+import de.badener.companion_browser.blocking.RequestTrace;
+import de.badener.companion_browser.blocking.SiteProfiles;
+
+// A browser tab. Its WebView is discarded when the tab has not been used for a while,
+// the saved state brings back the page and its history when the tab is shown again.
+public class Tab {
+    private String url;
+    private String title;
+    private WebView webView;
+    private Bundle savedState;
+    private long lastUsed;
+
+    // Read by filter rules with third-party or domain options on WebView's I/O threads
+    private volatile String pageHost;
+    // Profile of the current site, its blocking level is read on WebView's I/O threads
+    private volatile int siteProfile = SiteProfiles.DEFAULT;
+    // Start of the current page load for the load times of the site, 0 once it has been recorded
+    private long pageStartNanos;
+    // Statistics of the current navigation, null while statistics are disabled
+    private volatile NavigationStats navigationStats;
+    // Requests of the current navigation, recorded along with its statistics
+    private volatile RequestTrace requestTrace;
+    // Savings of the data saver on the current page, null while it is disabled
+    private volatile DataSaver.Savings dataSaverSavings;
+    // Element hiding script of the current navigation until the page has confirmed it
+    private String cosmeticScript;
+
+    Tab(String url) {
+        this.url = url;
+    }
+
+    // A tab of a restored session, its WebView is created from the state when it is shown
+    Tab(String url, String title, Bundle savedState) {
+        this.url = url;
+        this.title = title;
+        this.savedState = savedState;
+    }
+
+    public WebView getWebView() {
+        return webView;
+    }
+
+    public boolean isLive() {
+        return webView != null;
+    }
+
+    public String getUrl() {
+        String liveUrl = (webView != null ? webView.getUrl() : null);
+        return (liveUrl != null ? liveUrl : url);
+    }
+
+    public String getTitle() {
+        String liveTitle = (webView != null ? webView.getTitle() : null);
+        if (liveTitle != null && !liveTitle.isEmpty()) return liveTitle;
+        return (title != null && !title.isEmpty() ? title : getUrl());
+    }
+
+    public String getPageHost() {
+        return pageHost;
+    }
+
+    public void setPageHost(String pageHost) {
+        this.pageHost = pageHost;
+    }
+
+    public int getSiteProfile() {
+        return siteProfile;
+    }
+
+    public void setSiteProfile(int siteProfile) {
+        this.siteProfile = siteProfile;
+    }
+
+    public long getPageStartNanos() {
+        return pageStartNanos;
+    }
+
+    public void setPageStartNanos(long pageStartNanos) {
+        this.pageStartNanos = pageStartNanos;
+    }
+
+    public NavigationStats getNavigationStats() {
+        return navigationStats;
+    }
+
+    public void setNavigationStats(NavigationStats navigationStats) {
+        this.navigationStats = navigationStats;
+    }
+
+    public RequestTrace getRequestTrace() {
+        return requestTrace;
+    }
+
+    public void setRequestTrace(RequestTrace requestTrace) {
+        this.requestTrace = requestTrace;
+    }
+
+    public DataSaver.Savings getDataSaverSavings() {
+        return dataSaverSavings;
+    }
+
+    public void setDataSaverSavings(DataSaver.Savings dataSaverSavings) {
+        this.dataSaverSavings = dataSaverSavings;
+    }
+
+    public String getCosmeticScript() {
+        return cosmeticScript;
+    }
+
+    public void setCosmeticScript(String cosmeticScript) {
+        this.cosmeticScript = cosmeticScript;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    // Attach a new WebView, returns false if there is no saved state and the URL has to be loaded.
+    // States of a session snapshot may come from another WebView version, those are dropped.
+    boolean restore(WebView webView) {
+        this.webView = webView;
+        Bundle state = savedState;
+        savedState = null;
+        try {
+            return state != null && webView.restoreState(state) != null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // State for a session snapshot, null if the tab has to load its URL again
+    Bundle saveState() {
+        if (webView == null) {
+            return savedState;
+        }
+        Bundle state = new Bundle();
+        return (webView.saveState(state) != null ? state : null);
+    }
+
+    // Save the state of the WebView and release it
+    void discard() {
+        if (webView == null) return;
+        Bundle state = new Bundle();
+        if (webView.saveState(state) != null) savedState = state;
+        url = getUrl();
+        title = webView.getTitle();
+        destroyWebView();
+    }
+
+    void destroyWebView() {
+        if (webView == null) return;
+        if (webView.getParent() instanceof ViewGroup) {
+            ((ViewGroup) webView.getParent()).removeView(webView);
+        }
+        webView.stopLoading();
+        webView.destroy();
+        webView = null;
+        navigationStats = null;
+        requestTrace = null;
+    }
+}
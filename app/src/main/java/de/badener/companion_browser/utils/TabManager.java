@@ -0,0 +1,111 @@
+package de.badener.companion_browser.utils;
+
+import android.os.Bundle;
+import android.webkit.WebView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps all tabs of the browser but only a few of their WebViews. When more tabs are live than
+// allowed, the least recently used ones are discarded and restored once they are shown again.
+public class TabManager {
+
+    public interface WebViewFactory {
+        WebView createWebView(Tab tab);
+    }
+
+    private final int maxLiveTabs;
+    private final WebViewFactory factory;
+    private final List<Tab> tabs = new ArrayList<>();
+    private Tab currentTab;
+    private long useCounter;
+
+    public TabManager(int maxLiveTabs, WebViewFactory factory) {
+        this.maxLiveTabs = maxLiveTabs;
+        this.factory = factory;
+    }
+
+    // The new tab is added after the current one, it has no WebView until it is selected
+    public Tab open(String url) {
+        Tab tab = new Tab(url);
+        tabs.add(currentTab != null ? tabs.indexOf(currentTab) + 1 : tabs.size(), tab);
+        return tab;
+    }
+
+    // Add a tab of a restored session at the end, it has no WebView until it is selected
+    public Tab restore(String url, String title, Bundle savedState) {
+        Tab tab = new Tab(url, title, savedState);
+        tabs.add(tab);
+        return tab;
+    }
+
+    // Make the tab the current one, creating its WebView if needed. Returns false
+    // if the WebView was newly created without a saved state and has to load the URL.
+    public boolean select(Tab tab) {
+        tab.setLastUsed(++useCounter);
+        currentTab = tab;
+        boolean isReady = true;
+        if (!tab.isLive()) {
+            isReady = tab.restore(factory.createWebView(tab));
+        }
+        trim(maxLiveTabs);
+        return isReady;
+    }
+
+    public void close(Tab tab) {
+        tab.destroyWebView();
+        tabs.remove(tab);
+        if (tab == currentTab) currentTab = null;
+    }
+
+    public void closeAll() {
+        for (Tab tab : tabs) {
+            tab.destroyWebView();
+        }
+        tabs.clear();
+        currentTab = null;
+    }
+
+    // Discard the least recently used WebViews until at most maxLive are left, never the current one
+    public void trim(int maxLive) {
+        int live = 0;
+        for (Tab tab : tabs) {
+            if (tab.isLive()) live++;
+        }
+        while (live > Math.max(1, maxLive)) {
+            Tab oldest = null;
+            for (Tab tab : tabs) {
+                if (tab.isLive() && tab != currentTab && (oldest == null || tab.getLastUsed() < oldest.getLastUsed())) {
+                    oldest = tab;
+                }
+            }
+            if (oldest == null) return;
+            oldest.discard();
+            live--;
+        }
+    }
+
+    public Tab getCurrentTab() {
+        return currentTab;
+    }
+
+    // The most recently used tab apart from the current one, null if there is none
+    public Tab getPreviousTab() {
+        Tab previous = null;
+        for (Tab tab : tabs) {
+            if (tab != currentTab && (previous == null || tab.getLastUsed() > previous.getLastUsed())) {
+                previous = tab;
+            }
+        }
+        return previous;
+    }
+
+    public List<Tab> getTabs() {
+        return Collections.unmodifiableList(tabs);
+    }
+
+    public int size() {
+        return tabs.size();
+    }
+}
@@ -0,0 +1,266 @@
+package de.badener.companion_browser.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.badener.companion_browser.blocking.SubresourceCache;
+
+// Behavior and hit ratio of the subresource cache against a local stand-in server with the kinds
+// of responses sites send, run with ./gradlew :benchmark:cacheCheck
+public class CacheCheck {
+    private static final byte[] SCRIPT = randomBytes(200 * 1024, 1);
+    private static final byte[] STYLESHEET = randomBytes(40 * 1024, 2);
+    private static final byte[] FONT = randomBytes(60 * 1024, 3);
+    private static final byte[] IMAGE = randomBytes(30 * 1024, 4);
+    private static final byte[] JSON = randomBytes(2 * 1024, 5);
+    private static final String[] PAGE = {"/app.js", "/copy-of-app.js", "/style.css", "/font.woff2", "/logo.png",
+            "/data.json"};
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong notModified = new AtomicLong();
+    private static final AtomicLong sentBytes = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        // Pages send Origin with cross-origin requests, which the JDK drops unless allowed
+        System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+        String origin = "http://127.0.0.1:" + server.getAddress().getPort();
+        File directory = Files.createTempDirectory("cache").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SubresourceCache cache = new SubresourceCache(directory, 10 * 1024 * 1024, executor, null);
+            cache.load();
+            visit("cold", cache, origin);
+            check(cache.getMissCount() == PAGE.length, "every request of the first visit is a miss");
+            check(cache.getEntryCount() == 4, "immutable, max-age and the copy are stored, no-store and Set-Cookie not");
+            check(cache.getSize() == SCRIPT.length + STYLESHEET.length + FONT.length, "the copy shares its body");
+
+            visit("warm", cache, origin);
+            check(cache.getHitCount() == 4, "stored responses are served without a request");
+
+            // The font arrived with an age one second short of its max-age
+            Thread.sleep(1200);
+            visit("stale", cache, origin);
+            check(cache.getRevalidationCount() == 1 && notModified.get() == 1, "the stale font is revalidated");
+
+            // Let the index be written, then start over like after a restart of the app
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+            SubresourceCache restarted = new SubresourceCache(directory, 10 * 1024 * 1024, executor, null);
+            restarted.load();
+            visit("restart", restarted, origin);
+            check(restarted.getHitCount() == 4, "the index survives a restart");
+
+            SubresourceCache small = new SubresourceCache(Files.createTempDirectory("small").toFile(),
+                    SCRIPT.length + FONT.length, executor, null);
+            small.load();
+            visit("budget", small, origin);
+            check(small.getSize() <= SCRIPT.length + FONT.length, "the least recently used entries are evicted");
+
+            final AtomicLong cookieReads = new AtomicLong();
+            final AtomicLong cookieWrites = new AtomicLong();
+            SubresourceCache.Cookies cookies = new SubresourceCache.Cookies() {
+                @Override
+                public String get(String url) {
+                    cookieReads.incrementAndGet();
+                    return null;
+                }
+
+                @Override
+                public void set(String url, List<String> values) {
+                    cookieWrites.incrementAndGet();
+                }
+            };
+            SubresourceCache withCookies = new SubresourceCache(Files.createTempDirectory("cookies").toFile(),
+                    10 * 1024 * 1024, executor, cookies);
+            withCookies.load();
+            readAll(withCookies.get(origin + "/logo.png", headers(), "www.example.com").getData());
+            check(cookieReads.get() == 0 && cookieWrites.get() == 0, "no cookies for other sites");
+            readAll(withCookies.get(origin + "/logo.png", headers(), "127.0.0.1").getData());
+            check(cookieReads.get() == 1 && cookieWrites.get() == 1, "cookies for the site of the page");
+
+            SubresourceCache cors = new SubresourceCache(Files.createTempDirectory("cors").toFile(),
+                    10 * 1024 * 1024, executor, null);
+            cors.load();
+            Map<String, String> fromSiteA = new HashMap<>(headers());
+            fromSiteA.put("Origin", "https://a.example");
+            readAll(cors.get(origin + "/echo.js", fromSiteA, "a.example").getData());
+            Map<String, String> fromSiteB = new HashMap<>(headers());
+            fromSiteB.put("Origin", "https://b.example");
+            SubresourceCache.Response echoed = cors.get(origin + "/echo.js", fromSiteB, "b.example");
+            readAll(echoed.getData());
+            check(!echoed.isFromCache() && "https://b.example".equals(
+                    echoed.getHeaders().get("Access-Control-Allow-Origin")), "an echoed origin is not replayed");
+            readAll(cors.get(origin + "/credentials.js", fromSiteA, "a.example").getData());
+            SubresourceCache.Response withCredentials = cors.get(origin + "/credentials.js", fromSiteA, "a.example");
+            readAll(withCredentials.getData());
+            check(withCredentials.isFromCache() && "true".equals(
+                    withCredentials.getHeaders().get("Access-Control-Allow-Credentials")),
+                    "credentials are allowed from the cache as well");
+            System.out.println("all checks passed");
+        } finally {
+            server.stop(0);
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // Load all resources of the page like the WebView would and print what went over the network
+    private static void visit(String name, SubresourceCache cache, String origin) throws IOException {
+        long requestsBefore = requests.get();
+        long bytesBefore = sentBytes.get();
+        long start = System.nanoTime();
+        Map<String, String> headers = headers();
+        for (String path : PAGE) {
+            SubresourceCache.Response response = cache.get(origin + path, headers, "127.0.0.1");
+            check(response != null, "a response for " + path);
+            check(Arrays.equals(readAll(response.getData()), body(path)), "the body of " + path);
+        }
+        long served = cache.getHitCount() + cache.getRevalidationCount();
+        System.out.printf("%-8s %2d requests %8d bytes %6.1f ms, hit ratio %.2f%n", name,
+                requests.get() - requestsBefore, sentBytes.get() - bytesBefore, (System.nanoTime() - start) / 1e6,
+                (double) served / (served + cache.getMissCount()));
+    }
+
+    private static Map<String, String> headers() {
+        return Collections.singletonMap("Accept", "*/*");
+    }
+
+    private static void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> headers = new HashMap<>();
+        switch (path) {
+            case "/app.js":
+            case "/copy-of-app.js":
+                headers.put("Cache-Control", "public, max-age=31536000, immutable");
+                headers.put("Content-Type", "text/javascript");
+                break;
+            case "/style.css":
+                headers.put("Cache-Control", "max-age=86400");
+                headers.put("Content-Type", "text/css; charset=utf-8");
+                break;
+            case "/font.woff2":
+                headers.put("Cache-Control", "max-age=3600");
+                headers.put("Age", "3599");
+                headers.put("ETag", "\"font-1\"");
+                headers.put("Access-Control-Allow-Origin", "*");
+                headers.put("Content-Type", "font/woff2");
+                if ("\"font-1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    putAll(exchange, headers);
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                break;
+            case "/logo.png":
+                headers.put("Cache-Control", "max-age=86400");
+                headers.put("Set-Cookie", "session=1");
+                headers.put("Content-Type", "image/png");
+                break;
+            case "/echo.js":
+                // The allowed origin is the requesting one
+                headers.put("Cache-Control", "max-age=86400");
+                headers.put("Vary", "Origin");
+                String requestOrigin = exchange.getRequestHeaders().getFirst("Origin");
+                if (requestOrigin != null) headers.put("Access-Control-Allow-Origin", requestOrigin);
+                headers.put("Content-Type", "text/javascript");
+                break;
+            case "/credentials.js":
+                headers.put("Cache-Control", "max-age=86400");
+                headers.put("Access-Control-Allow-Origin", "https://a.example");
+                headers.put("Access-Control-Allow-Credentials", "true");
+                headers.put("Content-Type", "text/javascript");
+                break;
+            default:
+                headers.put("Cache-Control", "no-store");
+                headers.put("Content-Type", "application/json");
+                break;
+        }
+        byte[] body = body(path);
+        putAll(exchange, headers);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+        sentBytes.addAndGet(body.length);
+    }
+
+    private static void putAll(HttpExchange exchange, Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+        }
+    }
+
+    private static byte[] body(String path) {
+        switch (path) {
+            case "/app.js":
+            case "/copy-of-app.js":
+            case "/echo.js":
+            case "/credentials.js":
+                return SCRIPT;
+            case "/style.css":
+                return STYLESHEET;
+            case "/font.woff2":
+                return FONT;
+            case "/logo.png":
+                return IMAGE;
+            default:
+                return JSON;
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try (InputStream stream = input) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = stream.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void check(boolean condition, String expectation) {
+        if (!condition) {
+            throw new AssertionError("Expected: " + expectation);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.badener.companion_browser.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.badener.companion_browser.blocking.FilterMatcher;
+import de.badener.companion_browser.blocking.HostTrie;
+
+// Inputs shared by the benchmarks
+final class Corpus {
+    // The bundled host list and generated lists of 100k and 1M hosts
+    static final String REAL = "real";
+    static final String GENERATED_100K = "100k";
+    static final String GENERATED_1M = "1m";
+
+    // Passed by the jmh task, see build.gradle
+    private static final String HOST_LIST = System.getProperty("hostList", "../app/blocklist/hosts.txt");
+    // A downloaded EasyList or similar list, for example -PfilterList=/tmp/easylist.txt
+    static final String FILTER_LIST = System.getProperty("filterList", "");
+
+    private static final String[] SUBDOMAINS = {"ads", "ad", "track", "stats", "pixel", "cdn", "static", "img",
+            "api", "www", "m", "tags", "sync", "beacon", "px", "collect", "secure", "delivery"};
+    private static final String[] SYLLABLES = {"ad", "click", "media", "tra", "ck", "ser", "ve", "net", "go",
+            "lo", "ban", "ner", "pro", "mo", "data", "met", "ric", "hub", "zon", "lytic", "bid", "ex", "pop",
+            "rev", "shift", "tag", "vi", "ral", "link", "buzz", "sys", "nova", "opti", "smart"};
+    private static final String[] TLDS = {"com", "net", "de", "org", "io", "info", "co.uk", "ru", "xyz", "top",
+            "biz", "fr", "nl", "pl", "jp", "com.br", "cn", "online", "site", "club"};
+    private static final String[] PATHS = {"/", "/js/tag.js", "/pixel.gif?id=", "/ads/banner?slot=",
+            "/collect?v=1&tid=", "/images/logo.png", "/api/v1/events?ts=", "/static/css/main.css?v=",
+            "/sync?partner=", "/fonts/roboto.woff2"};
+
+    private Corpus() {
+    }
+
+    static String[] hostList(String name) throws IOException {
+        switch (name) {
+            case REAL:
+                return read(new FileInputStream(HOST_LIST));
+            case GENERATED_100K:
+                return generateHosts(100_000, 100);
+            case GENERATED_1M:
+                return generateHosts(1_000_000, 1000);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    static HostTrie buildTrie(String[] hosts) {
+        HostTrie.Builder builder = new HostTrie.Builder();
+        for (String host : hosts) {
+            builder.add(host);
+        }
+        return builder.build();
+    }
+
+    // Write the binary index of a host list like the compileHostIndex task does
+    static File writeIndex(String[] hosts) throws IOException {
+        HostTrie.Builder builder = new HostTrie.Builder();
+        for (String host : hosts) {
+            builder.add(host);
+        }
+        File file = File.createTempFile("hosts", ".idx");
+        file.deleteOnExit();
+        try (OutputStream stream = new FileOutputStream(file)) {
+            builder.writeTo(stream);
+        }
+        return file;
+    }
+
+    // Random but reproducible hosts shaped like the entries of real ad server lists
+    static String[] generateHosts(int count, long seed) {
+        Random random = new Random(seed);
+        String[] hosts = new String[count];
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.setLength(0);
+            if (random.nextInt(3) == 0) {
+                builder.append(SUBDOMAINS[random.nextInt(SUBDOMAINS.length)]).append('.');
+            }
+            int syllables = 2 + random.nextInt(3);
+            for (int j = 0; j < syllables; j++) {
+                builder.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            if (random.nextInt(4) == 0) {
+                builder.append(random.nextInt(1000));
+            }
+            builder.append('.').append(TLDS[random.nextInt(TLDS.length)]);
+            hosts[i] = builder.toString();
+        }
+        return hosts;
+    }
+
+    // A real filter list if one is given, otherwise generated rules in the shapes common in EasyList
+    static String[] filterList(int count, long seed) throws IOException {
+        if (!FILTER_LIST.isEmpty()) {
+            return read(new FileInputStream(FILTER_LIST));
+        }
+        Random random = new Random(seed);
+        String[] hosts = generateHosts(count, seed);
+        String[] rules = new String[count];
+        for (int i = 0; i < count; i++) {
+            String word = SYLLABLES[random.nextInt(SYLLABLES.length)] + SYLLABLES[random.nextInt(SYLLABLES.length)]
+                    + random.nextInt(10000);
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    rules[i] = "||" + hosts[i] + "^";
+                    break;
+                case 4:
+                    rules[i] = "||" + hosts[i] + "^$third-party";
+                    break;
+                case 5:
+                    rules[i] = "/" + word + "/*/banner_";
+                    break;
+                case 6:
+                    rules[i] = "&" + word + "=";
+                    break;
+                case 7:
+                    rules[i] = "-" + word + "-ad.$image,script";
+                    break;
+                case 8:
+                    rules[i] = "||" + hosts[i] + "/" + word + ".js$script,domain=" + hosts[(i + 1) % count];
+                    break;
+                default:
+                    rules[i] = "@@||" + hosts[i] + "/" + word + "^";
+                    break;
+            }
+        }
+        return rules;
+    }
+
+    static FilterMatcher buildMatcher(String[] rules) {
+        FilterMatcher.Builder builder = new FilterMatcher.Builder();
+        for (String rule : rules) {
+            builder.add(rule);
+        }
+        return builder.build();
+    }
+
+    // Request stream of page loads: recorded request URLs mixed with requests to listed hosts and
+    // to unlisted hosts, roughly matching the share of ad and tracking requests on news sites
+    static String[] requestStream(String[] listedHosts, int count, long seed) throws IOException {
+        String[] recorded = readLines("/request-urls.txt");
+        String[] unlisted = generateHosts(count, seed + 1);
+        Random random = new Random(seed);
+        String[] urls = new String[count];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                urls[i] = recorded[random.nextInt(recorded.length)];
+            } else {
+                String host = (kind < 8 ? listedHosts[random.nextInt(listedHosts.length)] : unlisted[i]);
+                String subdomain = (random.nextBoolean() ? SUBDOMAINS[random.nextInt(SUBDOMAINS.length)] + "." : "");
+                urls[i] = "https://" + subdomain + host + PATHS[random.nextInt(PATHS.length)] + random.nextInt();
+            }
+        }
+        return urls;
+    }
+
+    static String[] readLines(String resource) throws IOException {
+        InputStream stream = Corpus.class.getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        return read(stream);
+    }
+
+    private static String[] read(InputStream stream) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+}
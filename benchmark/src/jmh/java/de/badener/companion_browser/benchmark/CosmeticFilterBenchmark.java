@@ -0,0 +1,85 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.CosmeticFilters;
+
+// Per-navigation cost of looking up the element hiding stylesheet of a page and the cost of
+// loading the compiled rules. Uses the element hiding rules of the real filter list if one is given.
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CosmeticFilterBenchmark {
+    private static final int PAGE_COUNT = 10_000;
+
+    @Param({"10000", "50000"})
+    public int ruleCount;
+
+    private byte[] compiled;
+    private CosmeticFilters filters;
+    private String[] pageHosts;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] hosts = Corpus.generateHosts(ruleCount, 7);
+        CosmeticFilters.Builder builder = new CosmeticFilters.Builder();
+        if (!Corpus.FILTER_LIST.isEmpty()) {
+            for (String rule : Corpus.filterList(ruleCount, 7)) {
+                builder.add(rule);
+            }
+        } else {
+            // Mostly generic selectors, site specific ones and a few exceptions, as in EasyList
+            Random random = new Random(7);
+            for (int i = 0; i < ruleCount; i++) {
+                int shape = random.nextInt(10);
+                if (shape < 5) {
+                    builder.add("##.ad-" + i);
+                } else if (shape < 9) {
+                    builder.add(hosts[random.nextInt(hosts.length)] + "##div[id^=\"sponsor-" + i + "\"]");
+                } else {
+                    builder.add(hosts[random.nextInt(hosts.length)] + "#@#.ad-" + random.nextInt(i + 1));
+                }
+            }
+        }
+        filters = builder.build();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        filters.writeTo(output);
+        compiled = output.toByteArray();
+
+        // Half of the pages are on hosts with their own rules, some of them on subdomains
+        Random random = new Random(42);
+        pageHosts = new String[PAGE_COUNT];
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            String host = hosts[random.nextInt(hosts.length)];
+            pageHosts[i] = (i % 2 == 0 ? "www." + host : "unlisted" + i + ".example.org");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    public String stylesheet() {
+        int i = next;
+        next = (i + 1 == pageHosts.length ? 0 : i + 1);
+        return filters.getStylesheet(pageHosts[i]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CosmeticFilters loadCompiled() throws IOException {
+        return CosmeticFilters.readFrom(new ByteArrayInputStream(compiled));
+    }
+}
@@ -0,0 +1,45 @@
+package de.badener.companion_browser.benchmark;
+
+import de.badener.companion_browser.blocking.Domains;
+
+// Which requests count as third-party, for sites below short second level labels and country code
+// suffixes, run with ./gradlew :benchmark:domainsCheck
+public class DomainsCheck {
+    private static int failures;
+
+    public static void main(String[] args) {
+        checkSameSite("cdn.zdf.de", "www.zdf.de");
+        checkSameSite("img.web.de", "web.de");
+        checkSameSite("gmx.de", "www.gmx.de");
+        checkSameSite("api.bit.ly", "bit.ly");
+        checkSameSite("static.bbc.co.uk", "www.bbc.co.uk");
+        checkSameSite("news.bbc.co.uk", "bbc.co.uk");
+        checkSameSite("img.example.com.br", "www.example.com.br");
+        checkSameSite("CDN.ZDF.DE", "www.zdf.de");
+        checkSameSite("ads.example.com", "www.example.com");
+        checkThirdParty("cdn.zdf.de", "www.ard.de");
+        checkThirdParty("www.itv.co.uk", "www.bbc.co.uk");
+        checkThirdParty("shop.example.com.br", "www.other.com.br");
+        checkThirdParty("tracker.net", "example.com");
+        if (failures > 0) {
+            throw new AssertionError(failures + " checks failed");
+        }
+        System.out.println("all checks passed");
+    }
+
+    private static void checkSameSite(String host, String documentHost) {
+        check(host, documentHost, false);
+    }
+
+    private static void checkThirdParty(String host, String documentHost) {
+        check(host, documentHost, true);
+    }
+
+    private static void check(String host, String documentHost, boolean isThirdParty) {
+        if (Domains.isThirdParty(host, 0, host.length(), documentHost) != isThirdParty) {
+            failures++;
+            System.out.println(host + " on " + documentHost + " should " + (isThirdParty ? "" : "not ")
+                    + "be third-party");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package de.badener.companion_browser.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.badener.companion_browser.blocking.SegmentedDownload;
+
+// Segmented downloads, resuming and restarting against a local stand-in server with and without
+// range support, run with ./gradlew :benchmark:downloadCheck
+public class DownloadCheck {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private static volatile byte[] content = randomBytes(8 * 1024 * 1024, 1);
+    private static volatile String etag = "\"v1\"";
+    // Slow responses leave time to cancel a download halfway
+    private static volatile boolean isSlow;
+    // Number of responses without range support that break off halfway
+    private static final AtomicInteger truncations = new AtomicInteger();
+    private static final AtomicInteger requests = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+        String origin = "http://127.0.0.1:" + server.getAddress().getPort();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            File directory = Files.createTempDirectory("download").toFile();
+            File target = new File(directory, "ranged.bin");
+            SegmentedDownload download = download(origin + "/ranged.bin", target, executor, false);
+            check(download.getConnectionCount() == 4, "ranges over four connections");
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "the file is complete");
+            check(files(directory).equals(Collections.singleton("ranged.bin")), "no part file or journal is left");
+            check(target.delete(), "the file can be deleted");
+
+            isSlow = true;
+            download = download(origin + "/ranged.bin", target, executor, true);
+            check(download.isCancelled() && new File(target.getPath() + ".journal").exists(),
+                    "a cancelled download keeps its journal");
+            isSlow = false;
+            download = download(origin + "/ranged.bin", target, executor, false);
+            check(download.getTransferredBytes() < content.length, "the download continues from the journal");
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "the resumed file is complete");
+            check(target.delete(), "the file can be deleted");
+
+            isSlow = true;
+            download(origin + "/ranged.bin", target, executor, true);
+            isSlow = false;
+            content = randomBytes(6 * 1024 * 1024, 2);
+            etag = "\"v2\"";
+            download = download(origin + "/ranged.bin", target, executor, false);
+            check(download.getTransferredBytes() == content.length, "a changed file is downloaded again");
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "the new file is complete");
+            check(files(directory).equals(Collections.singleton("ranged.bin")), "nothing of the old file is left");
+
+            target = new File(directory, "plain.bin");
+            download = download(origin + "/plain.bin", target, executor, false);
+            check(download.getConnectionCount() == 1, "one connection without range support");
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "the file without ranges is complete");
+            check(target.delete(), "the file can be deleted");
+
+            truncations.set(1);
+            int requestsBefore = requests.get();
+            download(origin + "/plain.bin", target, executor, false);
+            check(requests.get() - requestsBefore == 2, "a broken off response is requested again");
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "the restarted file is complete");
+            check(files(directory).equals(new HashSet<>(Arrays.asList("ranged.bin", "plain.bin"))),
+                    "no part file or journal is left without ranges");
+            System.out.println("all checks passed");
+        } finally {
+            server.stop(0);
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // Run the download, cancelling it on the first progress report if requested
+    private static SegmentedDownload download(String url, File target, ExecutorService executor,
+                                              final boolean isCancelled) throws IOException {
+        SegmentedDownload download = new SegmentedDownload(new URL(url), target,
+                Collections.<String, String>emptyMap(), 4, executor);
+        final IOException[] error = new IOException[1];
+        download.run(new SegmentedDownload.Listener() {
+            @Override
+            public void onProgress(SegmentedDownload download) {
+                if (isCancelled) download.cancel();
+            }
+
+            @Override
+            public void onFinished(SegmentedDownload download) {
+            }
+
+            @Override
+            public void onFailed(SegmentedDownload download, IOException e) {
+                error[0] = e;
+            }
+        });
+        System.out.printf("%-12s %9d bytes on %d connections in %5d ms%s%n", target.getName(),
+                download.getTransferredBytes(), download.getConnectionCount(), download.getElapsedMillis(),
+                (error[0] != null ? ", " + error[0].getMessage() : ""));
+        check((error[0] != null) == isCancelled, (isCancelled ? "the download is cancelled" : "no error " + error[0]));
+        return download;
+    }
+
+    // /ranged.bin answers ranges with If-Range, /plain.bin has an ETag but always sends the whole file
+    private static void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body = content;
+        long start = 0;
+        long end = body.length - 1;
+        int status = 200;
+        boolean isTruncated = false;
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (exchange.getRequestURI().getPath().equals("/ranged.bin")) {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag))) {
+                String[] values = range.substring(6).split("-", -1);
+                start = Long.parseLong(values[0]);
+                if (!values[1].isEmpty()) end = Long.parseLong(values[1]);
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            }
+        } else {
+            isTruncated = truncations.getAndDecrement() > 0;
+        }
+        exchange.sendResponseHeaders(status, end - start + 1);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            for (long i = start; i <= end; i += CHUNK_SIZE) {
+                if (isTruncated && i >= body.length / 2) {
+                    // The server closes the connection if the handler throws
+                    throw new IllegalStateException("Truncated on purpose");
+                }
+                output.write(body, (int) i, (int) Math.min(CHUNK_SIZE, end - i + 1));
+                if (isSlow) Thread.sleep(10);
+            }
+            output.close();
+        } catch (IOException | InterruptedException ignored) {
+            // The client cancelled
+        }
+    }
+
+    private static Set<String> files(File directory) {
+        return new HashSet<>(Arrays.asList(directory.list()));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void check(boolean condition, String expectation) {
+        if (!condition) {
+            throw new AssertionError("Expected: " + expectation);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.FilterMatcher;
+import de.badener.companion_browser.blocking.ResourceType;
+import de.badener.companion_browser.blocking.UrlHosts;
+
+// Match time of the token indexed filter matcher and the cost of parsing a list
+// compared with loading its compiled form
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterMatchBenchmark {
+    private static final int REQUEST_COUNT = 100_000;
+
+    @Param({"10000", "100000"})
+    public int ruleCount;
+
+    private String[] rules;
+    private byte[] compiled;
+    private FilterMatcher matcher;
+    private String[] requests;
+    private long[] hosts;
+    private String[] documentHosts;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        rules = Corpus.filterList(ruleCount, 7);
+        matcher = Corpus.buildMatcher(rules);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        matcher.writeTo(output);
+        compiled = output.toByteArray();
+
+        String[] listedHosts = Corpus.generateHosts(ruleCount, 7);
+        requests = Corpus.requestStream(listedHosts, REQUEST_COUNT, 42);
+        hosts = new long[requests.length];
+        documentHosts = new String[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            hosts[i] = UrlHosts.find(requests[i]);
+            documentHosts[i] = (i % 3 == 0 ? "www.spiegel.de" : "www.example.com");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    public boolean match() {
+        int i = next;
+        next = (i + 1 == requests.length ? 0 : i + 1);
+        long host = hosts[i];
+        int hostStart = (host == UrlHosts.NO_HOST ? 0 : UrlHosts.start(host));
+        int hostEnd = (host == UrlHosts.NO_HOST ? 0 : UrlHosts.end(host));
+        return matcher.shouldBlock(requests[i], hostStart, hostEnd, documentHosts[i], ResourceType.SCRIPT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FilterMatcher parse() {
+        return Corpus.buildMatcher(rules);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FilterMatcher loadCompiled() throws IOException {
+        return FilterMatcher.readFrom(new ByteArrayInputStream(compiled));
+    }
+}
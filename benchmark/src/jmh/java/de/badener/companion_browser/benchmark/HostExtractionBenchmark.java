@@ -0,0 +1,69 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.HostTrie;
+import de.badener.companion_browser.blocking.UrlHosts;
+
+// Compares the host extraction of java.net.URL with the single scan of UrlHosts,
+// both alone and followed by the host index lookup done for every intercepted request
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HostExtractionBenchmark {
+
+    private String[] urls;
+    private HostTrie hosts;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        urls = Corpus.readLines("/request-urls.txt");
+        hosts = Corpus.buildTrie(Corpus.hostList(Corpus.REAL));
+    }
+
+    private String nextUrl() {
+        String url = urls[next];
+        next = (next + 1 == urls.length ? 0 : next + 1);
+        return url;
+    }
+
+    @Benchmark
+    public String javaNetUrl() {
+        try {
+            return new URL(nextUrl()).getHost();
+        } catch (MalformedURLException ignored) {
+        }
+        return null;
+    }
+
+    @Benchmark
+    public long urlHosts() {
+        return UrlHosts.find(nextUrl());
+    }
+
+    @Benchmark
+    public void javaNetUrlLookup(Blackhole blackhole) {
+        String host = javaNetUrl();
+        blackhole.consume(host != null && hosts.matches(host));
+    }
+
+    @Benchmark
+    public void urlHostsLookup(Blackhole blackhole) {
+        String url = nextUrl();
+        long host = UrlHosts.find(url);
+        blackhole.consume(host != UrlHosts.NO_HOST && hosts.matches(url, UrlHosts.start(host), UrlHosts.end(host)));
+    }
+}
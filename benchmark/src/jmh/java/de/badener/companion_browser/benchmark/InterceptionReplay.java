@@ -0,0 +1,221 @@
+package de.badener.companion_browser.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import de.badener.companion_browser.blocking.AdBlockingEngine;
+import de.badener.companion_browser.blocking.DataSaver;
+import de.badener.companion_browser.blocking.InterceptionPipeline;
+import de.badener.companion_browser.blocking.LatencyHistogram;
+import de.badener.companion_browser.blocking.NavigationStats;
+import de.badener.companion_browser.blocking.RequestTrace;
+import de.badener.companion_browser.blocking.ResourceType;
+import de.badener.companion_browser.blocking.SiteProfiles;
+import de.badener.companion_browser.blocking.UrlHosts;
+
+// Replays page loads through the interception pipeline on several threads like WebView's I/O threads,
+// and prints throughput, tail latency, lock contention and allocation per page. Traces are recorded by
+// the app after turning on "Record request traces" in the menu, see RequestTraces for pulling them.
+// Without traces the pages are built from the recorded request URLs. Run with ./gradlew :benchmark:replay,
+// options are -Ptraces=<file or directory>, -Pthreads=4, -Prate=<requests per second, 0 for unlimited>,
+// -Prounds=5, -Pstrict=true for the strict blocking level of site profiles and
+// -PmaxP99Micros=<fail above this 99th percentile>.
+public class InterceptionReplay {
+    private static final int SYNTHETIC_PAGES = 200;
+    private static final int SYNTHETIC_REQUESTS_PER_PAGE = 80;
+
+    public static void main(String[] args) throws Exception {
+        String traces = System.getProperty("traces", "");
+        int threads = Integer.getInteger("threads", 4);
+        long rate = Long.getLong("rate", 0);
+        int rounds = Integer.getInteger("rounds", 5);
+        long maxP99Micros = Long.getLong("maxP99Micros", 0);
+        int blocking = (Boolean.getBoolean("strict") ? SiteProfiles.BLOCKING_STRICT : SiteProfiles.BLOCKING_DEFAULT);
+
+        List<RequestTrace> loaded = (traces.isEmpty() ? syntheticPages() : readTraces(new File(traces)));
+        if (loaded.isEmpty()) {
+            throw new IOException("No request traces in " + traces);
+        }
+        List<List<RequestTrace.Request>> pages = new ArrayList<>(loaded.size());
+        for (RequestTrace trace : loaded) {
+            pages.add(trace.getRequests());
+        }
+        AdBlockingEngine engine = new AdBlockingEngine(Executors.newSingleThreadExecutor(), 1024);
+        engine.setHosts(Corpus.buildTrie(Corpus.hostList(Corpus.REAL)));
+        engine.setFilters(Corpus.buildMatcher(Corpus.filterList(10_000, 7)));
+        InterceptionPipeline pipeline = new InterceptionPipeline(engine, new DataSaver(), 0);
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean.isThreadContentionMonitoringSupported()) threadBean.setThreadContentionMonitoringEnabled(true);
+
+        // The first round warms up the JIT and the verdict cache and is not reported
+        replay(pipeline, engine, pages, threads, rate, 1, blocking);
+        Result result = replay(pipeline, engine, pages, threads, rate, rounds, blocking);
+
+        LatencyHistogram latency = result.latency;
+        System.out.printf("%d pages, %d requests on %d threads in %.1f ms%n", result.pages, latency.count(), threads,
+                result.elapsedNanos / 1e6);
+        System.out.printf("throughput %.0f requests/s, %.1f pages/s%n", latency.count() * 1e9 / result.elapsedNanos,
+                result.pages * 1e9 / result.elapsedNanos);
+        System.out.printf("latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3,
+                latency.max() / 1e3);
+        System.out.printf("contention %d blocked, %d ms blocked%n", result.blockedCount, result.blockedMillis);
+        System.out.printf("allocation %.1f KB per page, %.0f bytes per request%n",
+                result.allocatedBytes / 1024.0 / result.pages, (double) result.allocatedBytes / latency.count());
+        System.out.printf("blocked %d, dropped %d%n", result.blocked.get(), result.dropped.get());
+        if (maxP99Micros > 0 && latency.percentile(99) > TimeUnit.MICROSECONDS.toNanos(maxP99Micros)) {
+            throw new AssertionError("99th percentile above " + maxP99Micros + " us");
+        }
+    }
+
+    private static final class Result {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong blocked = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        int pages;
+        long elapsedNanos;
+        long blockedCount;
+        long blockedMillis;
+        long allocatedBytes;
+    }
+
+    // Every thread replays whole pages, one request after the other, until all rounds are done.
+    // With a rate the requests of all threads are spread evenly over time.
+    private static Result replay(final InterceptionPipeline pipeline, final AdBlockingEngine engine,
+                                 final List<List<RequestTrace.Request>> pages, int threadCount, long rate, int rounds,
+                                 final int blocking)
+            throws InterruptedException {
+        final Result result = new Result();
+        final int pageCount = pages.size() * rounds;
+        final AtomicInteger nextPage = new AtomicInteger();
+        final long intervalNanos = (rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0);
+        final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+        final long[] allocated = new long[threadCount];
+        final long[] blockedCounts = new long[threadCount];
+        final long[] blockedMillis = new long[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long allocatedBefore = allocatedBytes();
+                    int page;
+                    while ((page = nextPage.getAndIncrement()) < pageCount) {
+                        replayPage(pipeline, engine, pages.get(page % pages.size()), blocking, result, intervalNanos,
+                                nextSlot);
+                    }
+                    allocated[index] = allocatedBytes() - allocatedBefore;
+                    // Terminated threads have no thread info anymore
+                    ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(
+                            Thread.currentThread().getId());
+                    blockedCounts[index] = info.getBlockedCount();
+                    blockedMillis[index] = Math.max(0, info.getBlockedTime());
+                }
+            }, "Replay-" + i);
+        }
+        long start = System.nanoTime();
+        nextSlot.set(start);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.pages = pageCount;
+        for (int i = 0; i < threadCount; i++) {
+            result.allocatedBytes += allocated[i];
+            result.blockedCount += blockedCounts[i];
+            result.blockedMillis += blockedMillis[i];
+        }
+        return result;
+    }
+
+    private static void replayPage(InterceptionPipeline pipeline, AdBlockingEngine engine,
+                                   List<RequestTrace.Request> page, int blocking,
+                                   Result result, long intervalNanos, AtomicLong nextSlot) {
+        NavigationStats stats = new NavigationStats(null, engine.getVerdictCache());
+        DataSaver.Savings savings = new DataSaver.Savings();
+        for (RequestTrace.Request request : page) {
+            if (intervalNanos > 0) {
+                long slot = nextSlot.getAndAdd(intervalNanos);
+                long wait;
+                while ((wait = slot - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long start = System.nanoTime();
+            int decision = pipeline.decide(request.url, request.type, request.isMainFrame, request.documentHost,
+                    blocking, savings, stats);
+            result.latency.record(System.nanoTime() - start);
+            if (decision == InterceptionPipeline.BLOCK) result.blocked.incrementAndGet();
+            else if (decision == InterceptionPipeline.DROP) result.dropped.incrementAndGet();
+        }
+        stats.finish(engine.getVerdictCache());
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static List<RequestTrace> readTraces(File file) throws IOException {
+        File[] files = (file.isDirectory() ? file.listFiles() : new File[]{file});
+        List<RequestTrace> traces = new ArrayList<>();
+        if (files == null) return traces;
+        Arrays.sort(files);
+        for (File trace : files) {
+            if (!trace.isFile()) continue;
+            try (Reader reader = new InputStreamReader(new FileInputStream(trace), StandardCharsets.UTF_8)) {
+                traces.add(RequestTrace.readFrom(reader));
+            }
+        }
+        return traces;
+    }
+
+    // Pages of the request stream, each starting with a document of one of the recorded hosts
+    private static List<RequestTrace> syntheticPages() throws IOException {
+        String[] documents = Corpus.readLines("/request-urls.txt");
+        String[] requests = Corpus.requestStream(Corpus.generateHosts(10_000, 7),
+                SYNTHETIC_PAGES * SYNTHETIC_REQUESTS_PER_PAGE, 42);
+        Random random = new Random(42);
+        List<RequestTrace> pages = new ArrayList<>(SYNTHETIC_PAGES);
+        for (int page = 0; page < SYNTHETIC_PAGES; page++) {
+            String document = documents[random.nextInt(documents.length)];
+            long host = UrlHosts.find(document);
+            String documentHost = (host == UrlHosts.NO_HOST ? null
+                    : document.substring(UrlHosts.start(host), UrlHosts.end(host)));
+            RequestTrace trace = new RequestTrace();
+            long offset = System.nanoTime();
+            trace.record(offset, 0, ResourceType.DOCUMENT, true, documentHost, document);
+            for (int i = 0; i < SYNTHETIC_REQUESTS_PER_PAGE - 1; i++) {
+                String url = requests[page * SYNTHETIC_REQUESTS_PER_PAGE + i];
+                trace.record(offset + i + 1, 0, ResourceType.guess(url, null, false), false, documentHost, url);
+            }
+            pages.add(trace);
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,25 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import de.badener.companion_browser.blocking.HostTrie;
+
+// Retained heap of the loaded host lists compared with the HashSet<String> used before,
+// run with ./gradlew :benchmark:footprint
+public class ListFootprint {
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%-6s %12s %14s %14s%n", "list", "trie nodes", "trie bytes", "HashSet bytes");
+        for (String list : new String[]{Corpus.REAL, Corpus.GENERATED_100K, Corpus.GENERATED_1M}) {
+            String[] hosts = Corpus.hostList(list);
+            HostTrie trie = Corpus.buildTrie(hosts);
+            HashSet<String> set = new HashSet<>(Arrays.asList(hosts));
+            System.out.printf("%-6s %12d %14d %14d%n", list, trie.size(),
+                    GraphLayout.parseInstance(trie).totalSize(), GraphLayout.parseInstance(set).totalSize());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.HostTrie;
+
+// Time to get a queryable host list, parsed from text or mapped from the precompiled index
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ListLoadBenchmark {
+
+    @Param({Corpus.REAL, Corpus.GENERATED_100K, Corpus.GENERATED_1M})
+    public String list;
+
+    private String[] hosts;
+    private File index;
+
+    @Setup
+    public void setup() throws IOException {
+        hosts = Corpus.hostList(list);
+        index = Corpus.writeIndex(hosts);
+    }
+
+    @Benchmark
+    public HostTrie parseText() {
+        return Corpus.buildTrie(hosts);
+    }
+
+    @Benchmark
+    public HostTrie mapIndex() throws IOException {
+        try (FileInputStream stream = new FileInputStream(index)) {
+            return HostTrie.map(stream.getChannel(), 0, index.length());
+        }
+    }
+}
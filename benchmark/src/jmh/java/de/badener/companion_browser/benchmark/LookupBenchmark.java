@@ -0,0 +1,78 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.AdBlockingEngine;
+import de.badener.companion_browser.blocking.HostTrie;
+import de.badener.companion_browser.blocking.UrlHosts;
+
+// Lookup cost of the request stream of page loads against host lists of different sizes.
+// Throughput and sample time (latency percentiles) are measured, run with the gc profiler
+// for the allocation rate.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LookupBenchmark {
+    private static final int REQUEST_COUNT = 100_000;
+
+    @Param({Corpus.REAL, Corpus.GENERATED_100K, Corpus.GENERATED_1M})
+    public String list;
+
+    private ExecutorService executor;
+    private AdBlockingEngine engine;
+    private HostTrie hosts;
+    private String[] requests;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        String[] listedHosts = Corpus.hostList(list);
+        hosts = Corpus.buildTrie(listedHosts);
+        requests = Corpus.requestStream(listedHosts, REQUEST_COUNT, 42);
+        executor = Executors.newSingleThreadExecutor();
+        engine = new AdBlockingEngine(executor, 1024);
+        engine.setHosts(hosts);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private String nextRequest(Cursor cursor) {
+        String url = requests[cursor.next];
+        cursor.next = (cursor.next + 1 == requests.length ? 0 : cursor.next + 1);
+        return url;
+    }
+
+    // The complete lookup of the interception path, including the verdict cache
+    @Benchmark
+    public boolean engine(Cursor cursor) {
+        return engine.isAd(nextRequest(cursor));
+    }
+
+    // The host index alone
+    @Benchmark
+    public boolean trie(Cursor cursor) {
+        String url = nextRequest(cursor);
+        long host = UrlHosts.find(url);
+        return host != UrlHosts.NO_HOST && hosts.matches(url, UrlHosts.start(host), UrlHosts.end(host));
+    }
+}
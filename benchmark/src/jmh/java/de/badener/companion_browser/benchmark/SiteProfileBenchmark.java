@@ -0,0 +1,66 @@
+package de.badener.companion_browser.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import de.badener.companion_browser.blocking.SiteProfiles;
+
+// Cost of resolving the profile of a page host at navigation time, hosts are a mix of listed
+// sites, subdomains of them and unlisted hosts. Should not allocate with the gc profiler.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SiteProfileBenchmark {
+    private static final int HOST_COUNT = 10_000;
+
+    @Param({"10", "1000"})
+    public int siteCount;
+
+    private final SiteProfiles profiles = new SiteProfiles();
+    private String[] hosts;
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] sites = Corpus.generateHosts(siteCount, 3);
+        Map<String, Integer> lite = new HashMap<>();
+        for (String site : sites) {
+            lite.put(site, SiteProfiles.LITE);
+        }
+        profiles.setAll(lite);
+        String[] unlisted = Corpus.generateHosts(HOST_COUNT, 4);
+        Random random = new Random(5);
+        hosts = new String[HOST_COUNT];
+        for (int i = 0; i < HOST_COUNT; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    hosts[i] = sites[random.nextInt(sites.length)];
+                    break;
+                case 1:
+                    hosts[i] = "www." + sites[random.nextInt(sites.length)];
+                    break;
+                default:
+                    hosts[i] = "www." + unlisted[i];
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public int lookup() {
+        String host = hosts[next];
+        next = (next + 1 == hosts.length ? 0 : next + 1);
+        return profiles.get(host);
+    }
+}
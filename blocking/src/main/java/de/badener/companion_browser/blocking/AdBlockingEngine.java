@@ -0,0 +1,128 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Loading lifecycle and lookups of the ad blocking, independent of where the host index comes from
+public final class AdBlockingEngine {
+    private final ExecutorService executor;
+    // Immutable snapshot of the host index, published once it is completely loaded
+    private final AtomicReference<HostTrie> hosts = new AtomicReference<>();
+    // Optional filter lists in Adblock Plus syntax, checked after the host list
+    private final AtomicReference<FilterMatcher> filters = new AtomicReference<>();
+    // Optional element hiding rules of the same lists
+    private final AtomicReference<CosmeticFilters> cosmeticFilters = new AtomicReference<>();
+    // Verdicts only depend on the host
+    private final HostVerdictCache verdictCache;
+    private volatile Future<HostTrie> loading;
+
+    public AdBlockingEngine(ExecutorService executor, int cacheCapacity) {
+        this.executor = executor;
+        this.verdictCache = new HostVerdictCache(cacheCapacity);
+    }
+
+    // The index is loaded only once, a failed load is retried on the next call
+    public synchronized Future<HostTrie> load(final Callable<HostTrie> loader) {
+        if (loading == null || (loading.isDone() && hosts.get() == null)) {
+            loading = executor.submit(new Callable<HostTrie>() {
+                @Override
+                public HostTrie call() throws Exception {
+                    HostTrie loaded = loader.call();
+                    setHosts(loaded);
+                    return loaded;
+                }
+            });
+        }
+        return loading;
+    }
+
+    // Publish a new index, cached verdicts of the previous one are dropped
+    public void setHosts(HostTrie loaded) {
+        hosts.set(loaded);
+        verdictCache.clear();
+    }
+
+    public void setFilters(FilterMatcher loaded) {
+        filters.set(loaded);
+    }
+
+    public FilterMatcher getFilters() {
+        return filters.get();
+    }
+
+    public void setCosmeticFilters(CosmeticFilters loaded) {
+        cosmeticFilters.set(loaded);
+    }
+
+    public CosmeticFilters getCosmeticFilters() {
+        return cosmeticFilters.get();
+    }
+
+    public HostTrie getHosts() {
+        return hosts.get();
+    }
+
+    public boolean isReady() {
+        return hosts.get() != null;
+    }
+
+    // Wait up to the given time for the index, returns false if ad blocking is still not ready
+    public boolean awaitReady(long timeout, TimeUnit unit) {
+        if (isReady()) return true;
+        Future<HostTrie> future = loading;
+        if (future == null) return false;
+        try {
+            future.get(timeout, unit);
+        } catch (ExecutionException | TimeoutException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return isReady();
+    }
+
+    // Fails open, requests are not blocked while the index is still loading
+    public boolean isAd(CharSequence url) {
+        long host = UrlHosts.find(url);
+        return host != UrlHosts.NO_HOST && isAdHost(url, UrlHosts.start(host), UrlHosts.end(host));
+    }
+
+    // Check the host list and the filter lists, which also depend on the page and the type of the request.
+    // Exception rules of the filter lists also allow hosts on the host list.
+    public boolean isAd(CharSequence url, String documentHost, int type) {
+        long host = UrlHosts.find(url);
+        int hostStart = (host != UrlHosts.NO_HOST ? UrlHosts.start(host) : 0);
+        int hostEnd = (host != UrlHosts.NO_HOST ? UrlHosts.end(host) : 0);
+        FilterMatcher matcher = filters.get();
+        if (host != UrlHosts.NO_HOST && isAdHost(url, hostStart, hostEnd)) {
+            return matcher == null || !matcher.isAllowed(url, hostStart, hostEnd, documentHost, type);
+        }
+        return matcher != null && matcher.shouldBlock(url, hostStart, hostEnd, documentHost, type);
+    }
+
+    public boolean isAdHost(String host) {
+        return host != null && isAdHost(host, 0, host.length());
+    }
+
+    // Check the host in text[start, end), only a cache miss allocates
+    public boolean isAdHost(CharSequence text, int start, int end) {
+        HostTrie current = hosts.get();
+        if (current == null) {
+            return false;
+        }
+        Boolean isAd = verdictCache.get(text, start, end);
+        if (isAd == null) {
+            isAd = current.matches(text, start, end);
+            verdictCache.put(text, start, end, isAd);
+        }
+        return isAd;
+    }
+
+    public HostVerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+}
@@ -0,0 +1,324 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Element hiding rules like example.com##.ad-banner, compiled into ready stylesheets: a generic
+// one for every page and one per domain. Generic selectors are grouped into chunks, a domain with
+// exceptions (example.com#@#.ad-banner) keeps its own copy of only the chunks it changes.
+// A page looks up its host and each parent domain in a hash map, so the cost does not grow with the lists.
+public final class CosmeticFilters {
+    private static final int MAGIC = 0x434f534d;
+    private static final int VERSION = 1;
+    // Selectors per CSS rule, an invalid selector only disables the rule it is in
+    private static final int CHUNK_SIZE = 32;
+    // The generic stylesheet is injected into every page, selectors beyond this are dropped
+    private static final int MAX_GENERIC_LENGTH = 128 * 1024;
+    private static final String DECLARATION = "{display:none!important}\n";
+
+    private final String[] genericChunks;
+    private final String genericStylesheet;
+    private final Map<String, DomainBundle> domains;
+
+    private CosmeticFilters(String[] genericChunks, Map<String, DomainBundle> domains) {
+        this.genericChunks = genericChunks;
+        this.domains = domains;
+        StringBuilder stylesheet = new StringBuilder();
+        for (String chunk : genericChunks) {
+            stylesheet.append(chunk);
+        }
+        this.genericStylesheet = stylesheet.toString();
+    }
+
+    public int domainCount() {
+        return domains.size();
+    }
+
+    // The stylesheet hiding the elements of all rules that apply to pages of the host
+    public String getStylesheet(String host) {
+        if (host == null || host.isEmpty()) {
+            return genericStylesheet;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        // The host itself first, then its parent domains
+        List<DomainBundle> bundles = null;
+        int start = 0;
+        while (true) {
+            DomainBundle bundle = domains.get(start == 0 ? host : host.substring(start));
+            if (bundle != null) {
+                if (bundles == null) bundles = new ArrayList<>(2);
+                bundles.add(bundle);
+            }
+            int dot = host.indexOf('.', start);
+            if (dot < 0) break;
+            start = dot + 1;
+        }
+        if (bundles == null) {
+            return genericStylesheet;
+        }
+        StringBuilder stylesheet = new StringBuilder(genericStylesheet.length() + 256);
+        boolean hasReplacements = false;
+        for (DomainBundle bundle : bundles) {
+            hasReplacements |= bundle.chunkIds.length > 0;
+        }
+        if (!hasReplacements) {
+            stylesheet.append(genericStylesheet);
+        } else {
+            for (int chunk = 0; chunk < genericChunks.length; chunk++) {
+                stylesheet.append(replacement(bundles, chunk));
+            }
+        }
+        for (DomainBundle bundle : bundles) {
+            stylesheet.append(bundle.stylesheet);
+        }
+        return stylesheet.toString();
+    }
+
+    // The chunk without the selectors excepted by the domains, the most specific domain first
+    private String replacement(List<DomainBundle> bundles, int chunk) {
+        for (DomainBundle bundle : bundles) {
+            for (int i = 0; i < bundle.chunkIds.length; i++) {
+                if (bundle.chunkIds[i] == chunk) return bundle.chunks[i];
+            }
+        }
+        return genericChunks[chunk];
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(genericChunks.length);
+        for (String chunk : genericChunks) {
+            writeString(output, chunk);
+        }
+        output.writeInt(domains.size());
+        for (Map.Entry<String, DomainBundle> entry : domains.entrySet()) {
+            DomainBundle bundle = entry.getValue();
+            output.writeUTF(entry.getKey());
+            writeString(output, bundle.stylesheet);
+            output.writeInt(bundle.chunkIds.length);
+            for (int i = 0; i < bundle.chunkIds.length; i++) {
+                output.writeInt(bundle.chunkIds[i]);
+                writeString(output, bundle.chunks[i]);
+            }
+        }
+        output.flush();
+    }
+
+    public static CosmeticFilters readFrom(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not compiled cosmetic filters");
+        }
+        String[] genericChunks = new String[input.readInt()];
+        for (int i = 0; i < genericChunks.length; i++) {
+            genericChunks[i] = readString(input);
+        }
+        int count = input.readInt();
+        Map<String, DomainBundle> domains = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String domain = input.readUTF();
+            String stylesheet = readString(input);
+            int[] chunkIds = new int[input.readInt()];
+            String[] chunks = new String[chunkIds.length];
+            for (int j = 0; j < chunkIds.length; j++) {
+                chunkIds[j] = input.readInt();
+                chunks[j] = readString(input);
+            }
+            domains.put(domain, new DomainBundle(stylesheet, chunkIds, chunks));
+        }
+        return new CosmeticFilters(genericChunks, domains);
+    }
+
+    // Stylesheets can exceed the 64 KB limit of writeUTF
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String stylesheet(List<String> selectors, int start, int end, Set<String> excluded) {
+        StringBuilder rule = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            String selector = selectors.get(i);
+            if (excluded != null && excluded.contains(selector)) continue;
+            if (rule.length() > 0) rule.append(',');
+            rule.append(selector);
+        }
+        return (rule.length() == 0 ? "" : rule.append(DECLARATION).toString());
+    }
+
+    private static final class DomainBundle {
+        // Selectors for this domain only
+        final String stylesheet;
+        // Generic chunks replaced for this domain, sorted
+        final int[] chunkIds;
+        final String[] chunks;
+
+        DomainBundle(String stylesheet, int[] chunkIds, String[] chunks) {
+            this.stylesheet = stylesheet;
+            this.chunkIds = chunkIds;
+            this.chunks = chunks;
+        }
+    }
+
+    public static final class Builder {
+        // Insertion ordered, so the first rules of a list are kept if the generic stylesheet is too large
+        private final Set<String> generic = new LinkedHashSet<>();
+        private final Map<String, Set<String>> specific = new HashMap<>();
+        private final Map<String, Set<String>> exceptions = new HashMap<>();
+
+        // Returns false if the line is no supported element hiding rule
+        public boolean add(String line) {
+            String rule = line.trim();
+            boolean isException = false;
+            int separator = rule.indexOf("##");
+            if (separator < 0) {
+                separator = rule.indexOf("#@#");
+                isException = true;
+            }
+            if (separator < 0 || rule.startsWith("!")) {
+                return false;
+            }
+            String selector = rule.substring(separator + (isException ? 3 : 2)).trim();
+            if (!isSupported(selector)) {
+                return false;
+            }
+            List<String> included = new ArrayList<>();
+            List<String> excluded = new ArrayList<>();
+            for (String domain : rule.substring(0, separator).toLowerCase(Locale.ROOT).split(",")) {
+                domain = domain.trim();
+                if (domain.startsWith("~")) excluded.add(domain.substring(1));
+                else if (!domain.isEmpty()) included.add(domain);
+            }
+            if (isException) {
+                // Exceptions without domains would disable the rule everywhere, like removing it
+                if (included.isEmpty()) generic.remove(selector);
+                for (String domain : included) {
+                    put(exceptions, domain, selector);
+                }
+            } else if (included.isEmpty()) {
+                generic.add(selector);
+                // ~example.com##.ad applies everywhere but on example.com
+                for (String domain : excluded) {
+                    put(exceptions, domain, selector);
+                }
+            } else {
+                for (String domain : included) {
+                    put(specific, domain, selector);
+                }
+                for (String domain : excluded) {
+                    put(exceptions, domain, selector);
+                }
+            }
+            return true;
+        }
+
+        private static void put(Map<String, Set<String>> map, String domain, String selector) {
+            Set<String> selectors = map.get(domain);
+            if (selectors == null) {
+                selectors = new LinkedHashSet<>();
+                map.put(domain, selectors);
+            }
+            selectors.add(selector);
+        }
+
+        // Procedural and scriptlet rules of uBlock and Adblock Plus cannot be expressed in CSS, braces
+        // would end the rule and add arbitrary styles
+        private static boolean isSupported(String selector) {
+            return !selector.isEmpty() && selector.indexOf('{') < 0 && selector.indexOf('}') < 0
+                    && !selector.startsWith("+js(") && !selector.startsWith("^")
+                    && !selector.contains(":-abp-") && !selector.contains(":has-text(")
+                    && !selector.contains(":style(") && !selector.contains(":remove(")
+                    && !selector.contains(":xpath(") && !selector.contains(":matches-css")
+                    && !selector.contains(":upward(") && !selector.contains(":min-text-length(");
+        }
+
+        public int size() {
+            int size = generic.size();
+            for (Set<String> selectors : specific.values()) {
+                size += selectors.size();
+            }
+            return size;
+        }
+
+        public CosmeticFilters build() {
+            List<String> selectors = new ArrayList<>();
+            int length = 0;
+            for (String selector : generic) {
+                length += selector.length() + 1;
+                if (length + DECLARATION.length() * (selectors.size() / CHUNK_SIZE + 1) > MAX_GENERIC_LENGTH) break;
+                selectors.add(selector);
+            }
+            Map<String, Integer> chunkOf = new HashMap<>();
+            String[] chunks = new String[(selectors.size() + CHUNK_SIZE - 1) / CHUNK_SIZE];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                int end = Math.min(selectors.size(), (chunk + 1) * CHUNK_SIZE);
+                chunks[chunk] = stylesheet(selectors, chunk * CHUNK_SIZE, end, null);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    chunkOf.put(selectors.get(i), chunk);
+                }
+            }
+
+            Set<String> bundled = new HashSet<>(specific.keySet());
+            bundled.addAll(exceptions.keySet());
+            Map<String, DomainBundle> domains = new HashMap<>(bundled.size() * 2);
+            for (String domain : bundled) {
+                Set<String> excepted = exceptions.get(domain);
+                List<String> own = new ArrayList<>();
+                if (specific.containsKey(domain)) {
+                    for (String selector : specific.get(domain)) {
+                        // Generic selectors are already hidden, unless an exception removes them
+                        if ((excepted == null || !excepted.contains(selector)) && !chunkOf.containsKey(selector)) {
+                            own.add(selector);
+                        }
+                    }
+                }
+                List<Integer> changed = new ArrayList<>();
+                if (excepted != null) {
+                    for (String selector : excepted) {
+                        Integer chunk = chunkOf.get(selector);
+                        if (chunk != null && !changed.contains(chunk)) changed.add(chunk);
+                    }
+                }
+                if (own.isEmpty() && changed.isEmpty()) continue;
+                Collections.sort(changed);
+                int[] chunkIds = new int[changed.size()];
+                String[] replaced = new String[changed.size()];
+                for (int i = 0; i < chunkIds.length; i++) {
+                    chunkIds[i] = changed.get(i);
+                    int end = Math.min(selectors.size(), (chunkIds[i] + 1) * CHUNK_SIZE);
+                    replaced[i] = stylesheet(selectors, chunkIds[i] * CHUNK_SIZE, end, excepted);
+                }
+                StringBuilder stylesheet = new StringBuilder();
+                for (int start = 0; start < own.size(); start += CHUNK_SIZE) {
+                    stylesheet.append(stylesheet(own, start, Math.min(own.size(), start + CHUNK_SIZE), null));
+                }
+                domains.put(domain, new DomainBundle(stylesheet.toString(), chunkIds, replaced));
+            }
+            return new CosmeticFilters(chunks, domains);
+        }
+    }
+}
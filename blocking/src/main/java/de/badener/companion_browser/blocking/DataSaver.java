@@ -0,0 +1,144 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rules of the data saver: which kinds of subresources are dropped, by default and per site.
+// Site rules are looked up for the page host and its parent domains in an immutable map that is
+// replaced on changes, so lookups on WebView's I/O threads need no locking.
+public final class DataSaver {
+    public static final int IMAGES = 1;
+    public static final int MEDIA = 1 << 1;
+    public static final int FONTS = 1 << 2;
+    public static final int THIRD_PARTY_SCRIPTS = 1 << 3;
+    public static final int ALL = IMAGES | MEDIA | FONTS | THIRD_PARTY_SCRIPTS;
+    // Scripts of other sites are often needed for the page to work at all
+    public static final int DEFAULT = IMAGES | MEDIA | FONTS;
+
+    // Sizes of dropped requests are unknown, these are rough medians of the HTTP Archive
+    private static final long IMAGE_BYTES = 20 * 1024;
+    private static final long MEDIA_BYTES = 400 * 1024;
+    private static final long FONT_BYTES = 30 * 1024;
+    private static final long SCRIPT_BYTES = 25 * 1024;
+
+    private volatile int defaultCategories = DEFAULT;
+    private volatile Map<String, Integer> sites = Collections.emptyMap();
+    private final AtomicLong savedRequests = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    // Requests and estimated bytes saved on one page
+    public static final class Savings {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+    }
+
+    public int getDefaultCategories() {
+        return defaultCategories;
+    }
+
+    public void setDefaultCategories(int categories) {
+        defaultCategories = categories;
+    }
+
+    // The categories dropped on pages of the host, the rule of the most specific domain applies
+    public int getCategories(String host) {
+        if (host == null) {
+            return defaultCategories;
+        }
+        Map<String, Integer> current = sites;
+        if (!current.isEmpty()) {
+            host = host.toLowerCase(Locale.ROOT);
+            int start = 0;
+            while (true) {
+                Integer categories = current.get(start == 0 ? host : host.substring(start));
+                if (categories != null) return categories;
+                int dot = host.indexOf('.', start);
+                if (dot < 0) break;
+                start = dot + 1;
+            }
+        }
+        return defaultCategories;
+    }
+
+    public synchronized void setSiteCategories(String host, int categories) {
+        Map<String, Integer> updated = new HashMap<>(sites);
+        updated.put(host.toLowerCase(Locale.ROOT), categories);
+        sites = Collections.unmodifiableMap(updated);
+    }
+
+    public synchronized void removeSite(String host) {
+        Map<String, Integer> updated = new HashMap<>(sites);
+        updated.remove(host.toLowerCase(Locale.ROOT));
+        sites = Collections.unmodifiableMap(updated);
+    }
+
+    public Map<String, Integer> getSites() {
+        return sites;
+    }
+
+    // The data saver category of a request or 0 if it is always loaded
+    public static int category(CharSequence url, int hostStart, int hostEnd, String documentHost, int type) {
+        switch (type) {
+            case ResourceType.IMAGE:
+                return IMAGES;
+            case ResourceType.MEDIA:
+                return MEDIA;
+            case ResourceType.FONT:
+                return FONTS;
+            case ResourceType.SCRIPT:
+                return (documentHost != null && hostStart < hostEnd
+                        && Domains.isThirdParty(url, hostStart, hostEnd, documentHost) ? THIRD_PARTY_SCRIPTS : 0);
+            default:
+                return 0;
+        }
+    }
+
+    // Decide about a subresource of a page, savings may be null
+    public boolean shouldDrop(CharSequence url, int hostStart, int hostEnd, String documentHost, int type,
+                              Savings savings) {
+        int category = category(url, hostStart, hostEnd, documentHost, type);
+        if (category == 0 || (getCategories(documentHost) & category) == 0) {
+            return false;
+        }
+        long bytes = estimatedBytes(category);
+        savedRequests.incrementAndGet();
+        savedBytes.addAndGet(bytes);
+        if (savings != null) {
+            savings.requests.incrementAndGet();
+            savings.bytes.addAndGet(bytes);
+        }
+        return true;
+    }
+
+    private static long estimatedBytes(int category) {
+        switch (category) {
+            case IMAGES:
+                return IMAGE_BYTES;
+            case MEDIA:
+                return MEDIA_BYTES;
+            case FONTS:
+                return FONT_BYTES;
+            default:
+                return SCRIPT_BYTES;
+        }
+    }
+
+    public long getSavedRequests() {
+        return savedRequests.get();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+}
@@ -0,0 +1,78 @@
+package de.badener.companion_browser.blocking;
+
+// Host comparisons on character ranges, used by the options of filter rules
+public final class Domains {
+    // Second level labels that are public suffixes below country codes, as in co.uk or com.br.
+    // Other short labels like zdf.de or bit.ly are sites of their own.
+    private static final String[] COUNTRY_SECOND_LEVELS = {"ac", "co", "com", "edu", "gov", "ne", "net", "or",
+            "org"};
+
+    private Domains() {
+    }
+
+    // Check if the host in text[start, end) is the domain or one of its subdomains
+    public static boolean isSubdomainOf(CharSequence text, int start, int end, String domain) {
+        int offset = end - domain.length();
+        if (offset < start) {
+            return false;
+        }
+        for (int i = 0; i < domain.length(); i++) {
+            if (toLowerCase(text.charAt(offset + i)) != domain.charAt(i)) {
+                return false;
+            }
+        }
+        return offset == start || text.charAt(offset - 1) == '.';
+    }
+
+    public static boolean isSubdomainOf(String host, String domain) {
+        return host != null && isSubdomainOf(host, 0, host.length(), domain);
+    }
+
+    // A request is third-party if its site differs from the site of the page. Without the public
+    // suffix list the site is approximated by the last two labels, or three for hosts like example.co.uk
+    // with a known second level label below a country code
+    public static boolean isThirdParty(CharSequence text, int start, int end, String documentHost) {
+        int siteStart = siteStart(text, start, end);
+        int siteLength = end - siteStart;
+        int documentSiteStart = siteStart(documentHost, 0, documentHost.length());
+        if (documentHost.length() - documentSiteStart != siteLength) {
+            return true;
+        }
+        for (int i = 0; i < siteLength; i++) {
+            if (toLowerCase(text.charAt(siteStart + i)) != toLowerCase(documentHost.charAt(documentSiteStart + i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int siteStart(CharSequence text, int start, int end) {
+        int lastDot = -1;
+        int secondDot = -1;
+        for (int i = end - 1; i >= start; i--) {
+            if (text.charAt(i) != '.') continue;
+            if (lastDot < 0) {
+                lastDot = i;
+            } else if (secondDot < 0) {
+                secondDot = i;
+                boolean isCountrySuffix = end - lastDot - 1 == 2
+                        && isCountrySecondLevel(text, secondDot + 1, lastDot);
+                if (!isCountrySuffix) return secondDot + 1;
+            } else {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static boolean isCountrySecondLevel(CharSequence text, int start, int end) {
+        for (String label : COUNTRY_SECOND_LEVELS) {
+            if (label.length() == end - start && isSubdomainOf(text, start, end, label)) return true;
+        }
+        return false;
+    }
+
+    static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+}
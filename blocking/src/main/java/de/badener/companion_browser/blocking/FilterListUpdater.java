@@ -0,0 +1,218 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+
+// Keeps downloaded filter lists and their compiled form up to date, network rules and element
+// hiding rules are compiled separately. Lists are fetched with
+// If-None-Match / If-Modified-Since, so an unchanged list costs one 304 response, and the
+// compiled matcher is persisted so a cold start does not have to parse the lists again.
+// Files are written to a temporary file first and renamed, so readers never see partial files.
+public final class FilterListUpdater {
+    private static final String STATE_FILE = "state.properties";
+    private static final String COMPILED_FILE = "filters.bin";
+    private static final String COSMETIC_FILE = "cosmetic.bin";
+    private static final String KEY_SOURCES = "sources";
+    private static final String KEY_CHECKED = "checked";
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final File directory;
+    private final List<String> urls;
+
+    public FilterListUpdater(File directory, List<String> urls) {
+        this.directory = directory;
+        this.urls = urls;
+    }
+
+    // The matcher compiled by the last update or null if there is none for the configured lists
+    public FilterMatcher loadCompiled() throws IOException {
+        File compiled = new File(directory, COMPILED_FILE);
+        if (!compiled.exists() || !sources().equals(readState().getProperty(KEY_SOURCES))) {
+            return null;
+        }
+        try (InputStream stream = new FileInputStream(compiled)) {
+            return FilterMatcher.readFrom(stream);
+        }
+    }
+
+    // The element hiding rules compiled by the last update or null if there are none for the configured lists
+    public CosmeticFilters loadCompiledCosmetic() throws IOException {
+        File compiled = new File(directory, COSMETIC_FILE);
+        if (!compiled.exists() || !sources().equals(readState().getProperty(KEY_SOURCES))) {
+            return null;
+        }
+        try (InputStream stream = new FileInputStream(compiled)) {
+            return CosmeticFilters.readFrom(stream);
+        }
+    }
+
+    // Drop compiled files that cannot be read, the next update compiles the lists again
+    public synchronized void deleteCompiled() {
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, COMPILED_FILE).delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(directory, COSMETIC_FILE).delete();
+    }
+
+    // Time of the last completed update check, 0 if there was none
+    public long lastChecked() throws IOException {
+        return Long.parseLong(readState().getProperty(KEY_CHECKED, "0"));
+    }
+
+    // Download the changed lists and compile them, returns null if nothing has changed
+    public synchronized FilterMatcher update() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Properties state = readState();
+        boolean isChanged = !sources().equals(state.getProperty(KEY_SOURCES))
+                || !new File(directory, COMPILED_FILE).exists() || !new File(directory, COSMETIC_FILE).exists();
+        for (String url : urls) {
+            isChanged |= fetch(url, state);
+        }
+
+        FilterMatcher matcher = null;
+        if (isChanged) {
+            FilterMatcher.Builder builder = new FilterMatcher.Builder();
+            CosmeticFilters.Builder cosmeticBuilder = new CosmeticFilters.Builder();
+            for (String url : urls) {
+                File list = listFile(url);
+                if (!list.exists()) continue;
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(list), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!builder.add(line)) cosmeticBuilder.add(line);
+                    }
+                }
+            }
+            matcher = builder.build();
+            File cosmeticTemporary = new File(directory, COSMETIC_FILE + ".tmp");
+            try (OutputStream stream = new FileOutputStream(cosmeticTemporary)) {
+                cosmeticBuilder.build().writeTo(stream);
+            }
+            replace(cosmeticTemporary, new File(directory, COSMETIC_FILE));
+            File temporary = new File(directory, COMPILED_FILE + ".tmp");
+            try (OutputStream stream = new FileOutputStream(temporary)) {
+                matcher.writeTo(stream);
+            }
+            replace(temporary, new File(directory, COMPILED_FILE));
+            state.setProperty(KEY_SOURCES, sources());
+        }
+        state.setProperty(KEY_CHECKED, Long.toString(System.currentTimeMillis()));
+        writeState(state);
+        return matcher;
+    }
+
+    // Conditional download of one list, returns true if a new version was stored
+    private boolean fetch(String url, Properties state) throws IOException {
+        String id = id(url);
+        File list = listFile(url);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            if (list.exists()) {
+                String etag = state.getProperty(id + ".etag");
+                String lastModified = state.getProperty(id + ".modified");
+                if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+                if (lastModified != null) connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + status + " for " + url);
+            }
+            File temporary = new File(directory, list.getName() + ".tmp");
+            try (InputStream input = connection.getInputStream();
+                 OutputStream output = new FileOutputStream(temporary)) {
+                byte[] buffer = new byte[16384];
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, count);
+                }
+            }
+            replace(temporary, list);
+            setOrRemove(state, id + ".etag", connection.getHeaderField("ETag"));
+            setOrRemove(state, id + ".modified", connection.getHeaderField("Last-Modified"));
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void setOrRemove(Properties state, String key, String value) {
+        if (value != null) {
+            state.setProperty(key, value);
+        } else {
+            state.remove(key);
+        }
+    }
+
+    private Properties readState() throws IOException {
+        Properties state = new Properties();
+        File file = new File(directory, STATE_FILE);
+        if (file.exists()) {
+            try (InputStream stream = new FileInputStream(file)) {
+                state.load(stream);
+            }
+        }
+        return state;
+    }
+
+    private void writeState(Properties state) throws IOException {
+        File temporary = new File(directory, STATE_FILE + ".tmp");
+        try (OutputStream stream = new FileOutputStream(temporary)) {
+            state.store(stream, null);
+        }
+        replace(temporary, new File(directory, STATE_FILE));
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+    }
+
+    private String sources() {
+        StringBuilder builder = new StringBuilder();
+        for (String url : urls) {
+            builder.append(url).append(' ');
+        }
+        return builder.toString();
+    }
+
+    private File listFile(String url) {
+        return new File(directory, id(url) + ".txt");
+    }
+
+    private static String id(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
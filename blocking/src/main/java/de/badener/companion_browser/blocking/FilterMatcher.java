@@ -0,0 +1,330 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Matcher for large Adblock Plus / uBlock style filter lists. Every rule is indexed by the
+// rarest token of its pattern (a run of letters, digits or '%'), so a request is only checked
+// against the rules indexed by the tokens of its URL and the few rules without a usable token.
+public final class FilterMatcher {
+    private static final int MAGIC = 0x46494c54;
+    private static final int VERSION = 1;
+    // Tokens found in almost every URL are only used if a rule has nothing better
+    private static final String[] COMMON_TOKENS = {"http", "https", "www", "com", "net", "org", "de", "js",
+            "html", "php", "cdn", "static", "img", "images", "ad", "ads"};
+
+    private final NetworkFilter[] filters;
+    private final TokenIndex blockingIndex;
+    private final TokenIndex exceptionIndex;
+
+    private FilterMatcher(NetworkFilter[] filters, TokenIndex blockingIndex, TokenIndex exceptionIndex) {
+        this.filters = filters;
+        this.blockingIndex = blockingIndex;
+        this.exceptionIndex = exceptionIndex;
+    }
+
+    public int size() {
+        return filters.length;
+    }
+
+    public boolean shouldBlock(CharSequence url, int hostStart, int hostEnd, String documentHost, int type) {
+        return findBlockingFilter(url, hostStart, hostEnd, documentHost, type) != null;
+    }
+
+    // Returns the rule blocking the request or null if no rule matches or an exception applies
+    public NetworkFilter findBlockingFilter(CharSequence url, int hostStart, int hostEnd,
+                                            String documentHost, int type) {
+        NetworkFilter filter = blockingIndex.findMatch(filters, url, hostStart, hostEnd, documentHost, type);
+        if (filter == null
+                || exceptionIndex.findMatch(filters, url, hostStart, hostEnd, documentHost, type) != null) {
+            return null;
+        }
+        return filter;
+    }
+
+    // Whether an exception rule allows the request, even if it is blocked by something else
+    public boolean isAllowed(CharSequence url, int hostStart, int hostEnd, String documentHost, int type) {
+        return exceptionIndex.findMatch(filters, url, hostStart, hostEnd, documentHost, type) != null;
+    }
+
+    // Write the parsed rules and the token index, so they can be loaded without parsing again
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(filters.length);
+        for (NetworkFilter filter : filters) {
+            filter.writeTo(output);
+        }
+        blockingIndex.writeTo(output);
+        exceptionIndex.writeTo(output);
+        output.flush();
+    }
+
+    public static FilterMatcher readFrom(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not a compiled filter list");
+        }
+        NetworkFilter[] filters = new NetworkFilter[input.readInt()];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = NetworkFilter.readFrom(input);
+        }
+        return new FilterMatcher(filters, TokenIndex.readFrom(input), TokenIndex.readFrom(input));
+    }
+
+    static boolean isTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '%' || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int tokenHash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Domains.toLowerCase(text.charAt(i));
+        }
+        return hash;
+    }
+
+    // Hash of every token of the pattern that is complete, i.e. not next to a wildcard,
+    // so that the same token is certain to appear in every URL the rule matches
+    private static List<Integer> patternTokens(NetworkFilter filter) {
+        List<Integer> tokens = new ArrayList<>();
+        if (filter.isRegex()) {
+            return tokens;
+        }
+        String pattern = filter.getPattern();
+        boolean isStartAnchored = filter.hasFlag(NetworkFilter.HOST_ANCHOR | NetworkFilter.START_ANCHOR);
+        boolean isEndAnchored = filter.hasFlag(NetworkFilter.END_ANCHOR);
+        int i = 0;
+        while (i < pattern.length()) {
+            if (!isTokenChar(pattern.charAt(i))) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < pattern.length() && isTokenChar(pattern.charAt(j))) {
+                j++;
+            }
+            boolean isStartComplete = (i > 0 ? pattern.charAt(i - 1) != '*' : isStartAnchored);
+            boolean isEndComplete = (j < pattern.length() ? pattern.charAt(j) != '*' : isEndAnchored);
+            if (isStartComplete && isEndComplete) {
+                tokens.add(tokenHash(pattern, i, j));
+            }
+            i = j;
+        }
+        return tokens;
+    }
+
+    public static final class Builder {
+        private final List<NetworkFilter> filters = new ArrayList<>();
+
+        // Returns false if the line is no supported network rule
+        public boolean add(String line) {
+            NetworkFilter filter = NetworkFilter.parse(line);
+            if (filter == null) {
+                return false;
+            }
+            filters.add(filter);
+            return true;
+        }
+
+        public Builder addAll(Reader reader) throws IOException {
+            BufferedReader buffer = new BufferedReader(reader);
+            String line;
+            while ((line = buffer.readLine()) != null) {
+                add(line);
+            }
+            return this;
+        }
+
+        public int size() {
+            return filters.size();
+        }
+
+        public FilterMatcher build() {
+            NetworkFilter[] all = filters.toArray(new NetworkFilter[0]);
+            List<List<Integer>> tokens = new ArrayList<>(all.length);
+            Map<Integer, int[]> frequencies = new HashMap<>();
+            for (NetworkFilter filter : all) {
+                List<Integer> filterTokens = patternTokens(filter);
+                tokens.add(filterTokens);
+                for (Integer token : filterTokens) {
+                    int[] frequency = frequencies.get(token);
+                    if (frequency == null) {
+                        frequencies.put(token, new int[]{1});
+                    } else {
+                        frequency[0]++;
+                    }
+                }
+            }
+            for (String common : COMMON_TOKENS) {
+                int[] frequency = frequencies.get(tokenHash(common, 0, common.length()));
+                if (frequency != null) frequency[0] += all.length;
+            }
+
+            // Pick the rarest token of every rule, rules without a token are always checked
+            int[] chosen = new int[all.length];
+            boolean[] hasToken = new boolean[all.length];
+            for (int i = 0; i < all.length; i++) {
+                int best = Integer.MAX_VALUE;
+                for (Integer token : tokens.get(i)) {
+                    int frequency = frequencies.get(token)[0];
+                    if (frequency < best) {
+                        best = frequency;
+                        chosen[i] = token;
+                        hasToken[i] = true;
+                    }
+                }
+            }
+            return new FilterMatcher(all, TokenIndex.build(all, chosen, hasToken, false),
+                    TokenIndex.build(all, chosen, hasToken, true));
+        }
+    }
+
+    // Open addressing table from token hash to a range of rule ids, all in primitive arrays
+    private static final class TokenIndex {
+        // Slots of token hash, first and end of its rule ids, interleaved so a probe touches one cache line
+        private static final int SLOT_SIZE = 3;
+        private static final int EMPTY = -1;
+
+        // The rules of a slot are ruleIds[slots[i + 1]] until ruleIds[slots[i + 2] - 1], an empty slot has first -1
+        private final int[] slots;
+        private final int[] ruleIds;
+        private final int[] untokenized;
+
+        private TokenIndex(int[] slots, int[] ruleIds, int[] untokenized) {
+            this.slots = slots;
+            this.ruleIds = ruleIds;
+            this.untokenized = untokenized;
+        }
+
+        static TokenIndex build(NetworkFilter[] filters, int[] chosen, boolean[] hasToken, boolean isException) {
+            // Group the rule ids by token, keeping the order of the list within a token
+            Map<Integer, List<Integer>> buckets = new HashMap<>();
+            List<Integer> untokenized = new ArrayList<>();
+            int count = 0;
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i].isException() != isException) continue;
+                if (!hasToken[i]) {
+                    untokenized.add(i);
+                    continue;
+                }
+                List<Integer> bucket = buckets.get(chosen[i]);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    buckets.put(chosen[i], bucket);
+                }
+                bucket.add(i);
+                count++;
+            }
+
+            int capacity = Integer.highestOneBit(Math.max(1, buckets.size()) * 2 - 1) << 1;
+            int[] slots = new int[capacity * SLOT_SIZE];
+            for (int slot = 0; slot < capacity; slot++) {
+                slots[slot * SLOT_SIZE + 1] = EMPTY;
+            }
+            int[] ruleIds = new int[count];
+            int next = 0;
+            for (Map.Entry<Integer, List<Integer>> bucket : buckets.entrySet()) {
+                int slot = spread(bucket.getKey()) & (capacity - 1);
+                while (slots[slot * SLOT_SIZE + 1] != EMPTY) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots[slot * SLOT_SIZE] = bucket.getKey();
+                slots[slot * SLOT_SIZE + 1] = next;
+                for (Integer id : bucket.getValue()) {
+                    ruleIds[next++] = id;
+                }
+                slots[slot * SLOT_SIZE + 2] = next;
+            }
+            return new TokenIndex(slots, ruleIds, toArray(untokenized));
+        }
+
+        NetworkFilter findMatch(NetworkFilter[] filters, CharSequence url, int hostStart, int hostEnd,
+                                String documentHost, int type) {
+            for (int id : untokenized) {
+                if (filters[id].matches(url, hostStart, hostEnd, documentHost, type)) return filters[id];
+            }
+            if (ruleIds.length == 0) {
+                return null;
+            }
+            int length = url.length();
+            int i = 0;
+            while (i < length) {
+                if (!isTokenChar(url.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int hash = 0;
+                for (; i < length && isTokenChar(url.charAt(i)); i++) {
+                    hash = 31 * hash + Domains.toLowerCase(url.charAt(i));
+                }
+                int slot = find(hash);
+                if (slot < 0) continue;
+                for (int j = slots[slot + 1]; j < slots[slot + 2]; j++) {
+                    NetworkFilter filter = filters[ruleIds[j]];
+                    if (filter.matches(url, hostStart, hostEnd, documentHost, type)) return filter;
+                }
+            }
+            return null;
+        }
+
+        // Returns the offset of the slot of the token in slots or -1
+        private int find(int hash) {
+            int mask = slots.length / SLOT_SIZE - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+                int offset = slot * SLOT_SIZE;
+                if (slots[offset + 1] == EMPTY) return -1;
+                if (slots[offset] == hash) return offset;
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        void writeTo(DataOutputStream output) throws IOException {
+            writeInts(output, slots);
+            writeInts(output, ruleIds);
+            writeInts(output, untokenized);
+        }
+
+        static TokenIndex readFrom(DataInputStream input) throws IOException {
+            return new TokenIndex(readInts(input), readInts(input), readInts(input));
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+            output.writeInt(values.length);
+            for (int value : values) {
+                output.writeInt(value);
+            }
+        }
+
+        private static int[] readInts(DataInputStream input) throws IOException {
+            int[] values = new int[input.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = input.readInt();
+            }
+            return values;
+        }
+    }
+}
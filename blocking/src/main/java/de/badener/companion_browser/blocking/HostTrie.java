@@ -0,0 +1,203 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Read-only trie over reversed host names, stored as flat primitive arrays in a binary index.
+// A host is matched from its last character backwards, so a single pass answers
+// whether the host itself or any of its parent domains is in the list.
+// The index is queried in place, so it can be memory-mapped instead of being parsed.
+public final class HostTrie {
+
+    // Binary index: magic, version, node count, children, terminals, labels
+    private static final int MAGIC = 0x48545249;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    // Node 0 is the root, labels[i] is the character on the edge leading into node i
+    private final CharBuffer labels;
+    // The children of node i are the nodes children[i] until children[i + 1] - 1, sorted by label
+    private final IntBuffer children;
+    // Bit set of the nodes which complete a listed host
+    private final IntBuffer terminals;
+
+    private HostTrie(CharBuffer labels, IntBuffer children, IntBuffer terminals) {
+        this.labels = labels;
+        this.children = children;
+        this.terminals = terminals;
+    }
+
+    // Wrap a binary index without copying it
+    public static HostTrie read(ByteBuffer index) throws IOException {
+        ByteBuffer buffer = index.duplicate();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a host index");
+        }
+        int count = buffer.getInt();
+        int terminalCount = (count + 31) >>> 5;
+        if (count <= 0 || buffer.remaining() < 4L * (count + 1 + terminalCount) + 2L * count) {
+            throw new IOException("Truncated host index");
+        }
+        IntBuffer children = slice(buffer, 4 * (count + 1)).asIntBuffer();
+        IntBuffer terminals = slice(buffer, 4 * terminalCount).asIntBuffer();
+        CharBuffer labels = slice(buffer, 2 * count).asCharBuffer();
+        return new HostTrie(labels, children, terminals);
+    }
+
+    // Map a binary index from a file, the mapping stays valid after the channel is closed
+    public static HostTrie map(FileChannel channel, long position, long size) throws IOException {
+        return read(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    public int size() {
+        return labels.capacity();
+    }
+
+    public boolean matches(String host) {
+        return host != null && matches(host, 0, host.length());
+    }
+
+    // Check if the host in text[start, end) or one of its parent domains is listed
+    public boolean matches(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int i = end - 1; i >= start; i--) {
+            node = findChild(node, toLowerCase(text.charAt(i)));
+            if (node < 0) {
+                return false;
+            }
+            if ((i == start || text.charAt(i - 1) == '.') && isTerminal(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int findChild(int node, char label) {
+        int low = children.get(node);
+        int high = children.get(node + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midLabel = labels.get(mid);
+            if (midLabel < label) {
+                low = mid + 1;
+            } else if (midLabel > label) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isTerminal(int node) {
+        return (terminals.get(node >>> 5) & (1 << node)) != 0;
+    }
+
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+
+    public static final class Builder {
+        private final List<String> hosts = new ArrayList<>();
+
+        // Add one line of a host list, comments and hosts without a dot are ignored
+        public Builder add(String line) {
+            String host = line.trim().toLowerCase(Locale.ROOT);
+            if (host.isEmpty() || host.startsWith("#") || host.indexOf('.') < 0) {
+                return this;
+            }
+            hosts.add(new StringBuilder(host).reverse().toString());
+            return this;
+        }
+
+        public HostTrie build() {
+            try {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                writeTo(output);
+                return read(ByteBuffer.wrap(output.toByteArray()));
+            } catch (IOException e) {
+                // Only possible if the written index is inconsistent
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // Write the sorted and deduplicated hosts as binary index
+        public void writeTo(OutputStream stream) throws IOException {
+            String[] reversed = hosts.toArray(new String[0]);
+            Arrays.sort(reversed);
+            int capacity = 1;
+            for (String host : reversed) {
+                capacity += host.length();
+            }
+
+            char[] labels = new char[capacity];
+            int[] children = new int[capacity + 1];
+            int[] terminals = new int[(capacity + 31) >>> 5];
+            // Range of sorted hosts sharing the prefix of each node, only needed while building
+            int[] first = new int[capacity];
+            int[] last = new int[capacity];
+            int[] depth = new int[capacity];
+            last[0] = reversed.length;
+
+            // Breadth first, so that the children of every node are stored next to each other
+            int count = 1;
+            for (int node = 0; node < count; node++) {
+                children[node] = count;
+                int d = depth[node];
+                int i = first[node];
+                int end = last[node];
+                // Sorting puts the host equal to the prefix first, followed by its duplicates
+                while (i < end && reversed[i].length() == d) {
+                    terminals[node >>> 5] |= 1 << node;
+                    i++;
+                }
+                while (i < end) {
+                    char label = reversed[i].charAt(d);
+                    int j = i + 1;
+                    while (j < end && reversed[j].charAt(d) == label) {
+                        j++;
+                    }
+                    labels[count] = label;
+                    first[count] = i;
+                    last[count] = j;
+                    depth[count] = d + 1;
+                    count++;
+                    i = j;
+                }
+            }
+            children[count] = count;
+
+            DataOutputStream output = new DataOutputStream(stream);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(count);
+            for (int i = 0; i <= count; i++) {
+                output.writeInt(children[i]);
+            }
+            for (int i = 0; i < (count + 31) >>> 5; i++) {
+                output.writeInt(terminals[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                output.writeChar(labels[i]);
+            }
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Size-bounded LRU cache of ad blocking verdicts per host, safe for concurrent use.
+// Entries are spread over independently locked segments to keep WebView's I/O threads
+// from contending, and lookups take a character range so no host string is needed on a hit.
+public final class HostVerdictCache {
+    private static final int SEGMENT_COUNT = 8;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public HostVerdictCache(int capacity) {
+        int segmentCapacity = Math.max(1, (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    public Boolean get(String host) {
+        return get(host, 0, host.length());
+    }
+
+    // Returns the cached verdict for the host in text[start, end) or null if it is not cached
+    public Boolean get(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        Boolean verdict = segmentFor(hash).get(hash, text, start, end);
+        (verdict != null ? hitCount : missCount).incrementAndGet();
+        return verdict;
+    }
+
+    public void put(String host, boolean isAd) {
+        put(host, 0, host.length(), isAd);
+    }
+
+    public void put(CharSequence text, int start, int end, boolean isAd) {
+        int hash = hash(text, start, end);
+        if (segmentFor(hash).put(hash, text, start, end, isAd)) {
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+
+    private static boolean equalsHost(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (key.charAt(i - start) != toLowerCase(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hash table with chained buckets and an access ordered list, both kept in index arrays
+    private static final class Segment {
+        private static final int NONE = -1;
+
+        private final String[] keys;
+        private final int[] hashes;
+        private final boolean[] verdicts;
+        private final int[] buckets;
+        private final int[] nextInBucket;
+        // Access order, head is the most recently used entry and tail the next to evict
+        private final int[] newer;
+        private final int[] older;
+        private int head = NONE;
+        private int tail = NONE;
+        private int size;
+
+        Segment(int capacity) {
+            keys = new String[capacity];
+            hashes = new int[capacity];
+            verdicts = new boolean[capacity];
+            buckets = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            nextInBucket = new int[capacity];
+            newer = new int[capacity];
+            older = new int[capacity];
+            Arrays.fill(buckets, NONE);
+        }
+
+        synchronized Boolean get(int hash, CharSequence text, int start, int end) {
+            int entry = find(hash, text, start, end);
+            if (entry == NONE) {
+                return null;
+            }
+            moveToHead(entry);
+            return verdicts[entry];
+        }
+
+        // Returns true if another entry had to be evicted
+        synchronized boolean put(int hash, CharSequence text, int start, int end, boolean isAd) {
+            int entry = find(hash, text, start, end);
+            if (entry != NONE) {
+                verdicts[entry] = isAd;
+                moveToHead(entry);
+                return false;
+            }
+            boolean isEvicting = size == keys.length;
+            if (isEvicting) {
+                entry = tail;
+                unlink(entry);
+                removeFromBucket(entry);
+            } else {
+                entry = size++;
+            }
+            keys[entry] = text.subSequence(start, end).toString().toLowerCase(Locale.ROOT);
+            hashes[entry] = hash;
+            verdicts[entry] = isAd;
+            int bucket = bucketFor(hash);
+            nextInBucket[entry] = buckets[bucket];
+            buckets[bucket] = entry;
+            linkAtHead(entry);
+            return isEvicting;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(buckets, NONE);
+            head = NONE;
+            tail = NONE;
+            size = 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int find(int hash, CharSequence text, int start, int end) {
+            for (int entry = buckets[bucketFor(hash)]; entry != NONE; entry = nextInBucket[entry]) {
+                if (hashes[entry] == hash && equalsHost(keys[entry], text, start, end)) {
+                    return entry;
+                }
+            }
+            return NONE;
+        }
+
+        private int bucketFor(int hash) {
+            // The lowest bits already select the segment
+            return (hash >>> 3) & (buckets.length - 1);
+        }
+
+        private void removeFromBucket(int entry) {
+            int bucket = bucketFor(hashes[entry]);
+            if (buckets[bucket] == entry) {
+                buckets[bucket] = nextInBucket[entry];
+                return;
+            }
+            for (int i = buckets[bucket]; i != NONE; i = nextInBucket[i]) {
+                if (nextInBucket[i] == entry) {
+                    nextInBucket[i] = nextInBucket[entry];
+                    return;
+                }
+            }
+        }
+
+        private void moveToHead(int entry) {
+            if (entry != head) {
+                unlink(entry);
+                linkAtHead(entry);
+            }
+        }
+
+        private void linkAtHead(int entry) {
+            newer[entry] = NONE;
+            older[entry] = head;
+            if (head != NONE) newer[head] = entry;
+            head = entry;
+            if (tail == NONE) tail = entry;
+        }
+
+        private void unlink(int entry) {
+            if (newer[entry] != NONE) {
+                older[newer[entry]] = older[entry];
+            } else {
+                head = older[entry];
+            }
+            if (older[entry] != NONE) {
+                newer[older[entry]] = newer[entry];
+            } else {
+                tail = newer[entry];
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.concurrent.TimeUnit;
+
+// The decisions of the request interception without the WebView: ad blocking with its statistics,
+// third-party scripts and frames on strict sites, then the data saver. WebView calls it concurrently
+// from its I/O threads, the benchmarks replay recorded page loads through the same code.
+public final class InterceptionPipeline {
+    public static final int ALLOW = 0;
+    public static final int BLOCK = 1;
+    public static final int DROP = 2;
+    // Blocked from other sites at the strict level
+    private static final int STRICT_TYPES = ResourceType.SCRIPT | ResourceType.SUBDOCUMENT;
+
+    private final AdBlockingEngine engine;
+    private final DataSaver dataSaver;
+    private final long readyTimeoutMillis;
+
+    // Requests wait up to readyTimeoutMillis for the host index on a cold start, afterwards they are allowed
+    public InterceptionPipeline(AdBlockingEngine engine, DataSaver dataSaver, long readyTimeoutMillis) {
+        this.engine = engine;
+        this.dataSaver = dataSaver;
+        this.readyTimeoutMillis = readyTimeoutMillis;
+    }
+
+    // Blocking is one of the levels of SiteProfiles with BLOCKING_DEFAULT standing for the filters,
+    // savings are null while the data saver is off and stats null while statistics are off
+    public int decide(String url, int type, boolean isMainFrame, String documentHost, int blocking,
+                      DataSaver.Savings savings, NavigationStats stats) {
+        if (blocking != SiteProfiles.BLOCKING_OFF) {
+            engine.awaitReady(readyTimeoutMillis, TimeUnit.MILLISECONDS);
+            long start = (stats != null ? System.nanoTime() : 0);
+            boolean isAd = engine.isAd(url, documentHost, type);
+            if (stats != null) stats.recordRequest(isAd, System.nanoTime() - start);
+            if (isAd) {
+                return BLOCK;
+            }
+        } else if (stats != null) {
+            stats.recordRequest(false, -1);
+        }
+        if (isMainFrame || (savings == null && blocking != SiteProfiles.BLOCKING_STRICT)) {
+            return ALLOW;
+        }
+        long host = UrlHosts.find(url);
+        int hostStart = (host == UrlHosts.NO_HOST ? 0 : UrlHosts.start(host));
+        int hostEnd = (host == UrlHosts.NO_HOST ? 0 : UrlHosts.end(host));
+        if (blocking == SiteProfiles.BLOCKING_STRICT && (type & STRICT_TYPES) != 0 && documentHost != null
+                && hostStart < hostEnd && Domains.isThirdParty(url, hostStart, hostEnd, documentHost)) {
+            return BLOCK;
+        }
+        if (savings != null && dataSaver.shouldDrop(url, hostStart, hostEnd, documentHost, type, savings)) {
+            return DROP;
+        }
+        return ALLOW;
+    }
+}
@@ -0,0 +1,52 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The most recent navigations with their statistics, shared by all windows
+public final class NavigationLog {
+    private final int capacity;
+    private final ArrayDeque<NavigationStats> navigations = new ArrayDeque<>();
+
+    public NavigationLog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(NavigationStats stats) {
+        if (navigations.size() == capacity) {
+            navigations.removeFirst();
+        }
+        navigations.addLast(stats);
+    }
+
+    // Newest first
+    public synchronized List<NavigationStats> getNavigations() {
+        List<NavigationStats> list = new ArrayList<>(navigations);
+        Collections.reverse(list);
+        return list;
+    }
+
+    public synchronized void clear() {
+        navigations.clear();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"navigations\":");
+        appendJson(json);
+        return json.append('}').toString();
+    }
+
+    // Appends the navigations as JSON array, newest first
+    public void appendJson(StringBuilder json) {
+        json.append('[');
+        boolean isFirst = true;
+        for (NavigationStats stats : getNavigations()) {
+            if (!isFirst) json.append(',');
+            stats.appendJson(json);
+            isFirst = false;
+        }
+        json.append(']');
+    }
+}
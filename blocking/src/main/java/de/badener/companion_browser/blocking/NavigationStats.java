@@ -0,0 +1,110 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Request interception statistics of one navigation, recorded from WebView's I/O threads
+public final class NavigationStats {
+    private final String url;
+    private final long startTimeMillis;
+    private final long startNanos;
+    private final long cacheHitsAtStart;
+    private final long cacheMissesAtStart;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final LatencyHistogram lookupTime = new LatencyHistogram();
+    private volatile long loadTimeNanos = -1;
+    private volatile long cacheHits;
+    private volatile long cacheMisses;
+    private volatile long cosmeticNanos = -1;
+    private volatile int cosmeticLength;
+
+    public NavigationStats(String url, HostVerdictCache cache) {
+        this.url = url;
+        this.startTimeMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.cacheHitsAtStart = cache.hitCount();
+        this.cacheMissesAtStart = cache.missCount();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // A negative lookup time means that ad blocking was disabled
+    public void recordRequest(boolean isBlocked, long lookupNanos) {
+        requestCount.incrementAndGet();
+        if (isBlocked) blockedCount.incrementAndGet();
+        if (lookupNanos >= 0) lookupTime.record(lookupNanos);
+    }
+
+    // Time to look up and prepare the element hiding stylesheet and the length of the injected script
+    public void recordCosmeticFilters(long nanos, int length) {
+        cosmeticNanos = nanos;
+        cosmeticLength = length;
+    }
+
+    // Called when the page has finished loading, the verdict cache is shared by all windows,
+    // so its hit ratio also contains lookups of other windows loading at the same time
+    public void finish(HostVerdictCache cache) {
+        if (loadTimeNanos >= 0) return;
+        cacheHits = cache.hitCount() - cacheHitsAtStart;
+        cacheMisses = cache.missCount() - cacheMissesAtStart;
+        loadTimeNanos = System.nanoTime() - startNanos;
+    }
+
+    public boolean isFinished() {
+        return loadTimeNanos >= 0;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public long getLoadTimeMillis() {
+        return (loadTimeNanos < 0 ? -1 : loadTimeNanos / 1000000);
+    }
+
+    public LatencyHistogram getLookupTime() {
+        return lookupTime;
+    }
+
+    public double getCacheHitRatio() {
+        long lookups = cacheHits + cacheMisses;
+        return (lookups == 0 ? 0 : (double) cacheHits / lookups);
+    }
+
+    public void appendJson(StringBuilder json) {
+        json.append("{\"url\":");
+        appendString(json, url);
+        json.append(",\"startTime\":").append(startTimeMillis)
+                .append(",\"loadTimeMillis\":").append(getLoadTimeMillis())
+                .append(",\"requests\":").append(getRequestCount())
+                .append(",\"blocked\":").append(getBlockedCount())
+                .append(",\"cacheHits\":").append(cacheHits)
+                .append(",\"cacheMisses\":").append(cacheMisses)
+                .append(",\"cosmeticNanos\":").append(cosmeticNanos)
+                .append(",\"cosmeticLength\":").append(cosmeticLength)
+                .append(",\"lookupNanos\":");
+        lookupTime.appendJson(json);
+        json.append('}');
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,314 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// One network rule of an Adblock Plus / uBlock style filter list, for example
+// ||ads.example.com^$third-party,script or @@|https://example.com/ads.js|$domain=example.org
+public final class NetworkFilter {
+    static final int EXCEPTION = 1;
+    static final int HOST_ANCHOR = 1 << 1;
+    static final int START_ANCHOR = 1 << 2;
+    static final int END_ANCHOR = 1 << 3;
+    static final int MATCH_CASE = 1 << 4;
+    static final int THIRD_PARTY = 1 << 5;
+    static final int FIRST_PARTY = 1 << 6;
+
+    private static final String[] NO_DOMAINS = new String[0];
+
+    private final int flags;
+    private final int types;
+    // Lower case unless the rule is case sensitive, '*' matches anything and '^' a separator
+    private final String pattern;
+    private final Pattern regex;
+    private final String[] domains;
+    private final String[] excludedDomains;
+
+    private NetworkFilter(int flags, int types, String pattern, Pattern regex,
+                          String[] domains, String[] excludedDomains) {
+        this.flags = flags;
+        this.types = types;
+        this.pattern = pattern;
+        this.regex = regex;
+        this.domains = domains;
+        this.excludedDomains = excludedDomains;
+    }
+
+    // Returns null for comments, cosmetic rules and rules with unsupported options
+    public static NetworkFilter parse(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[")
+                || rule.contains("##") || rule.contains("#@#") || rule.contains("#?#") || rule.contains("#$#")) {
+            return null;
+        }
+        int flags = 0;
+        if (rule.startsWith("@@")) {
+            flags |= EXCEPTION;
+            rule = rule.substring(2);
+        }
+
+        int types = ResourceType.DEFAULT;
+        String[] domains = NO_DOMAINS;
+        String[] excludedDomains = NO_DOMAINS;
+        int optionsStart = rule.lastIndexOf('$');
+        if (optionsStart >= 0 && !(rule.startsWith("/") && rule.endsWith("/"))) {
+            int included = 0;
+            int excluded = 0;
+            for (String option : rule.substring(optionsStart + 1).toLowerCase(Locale.ROOT).split(",")) {
+                boolean isNegated = option.startsWith("~");
+                String name = (isNegated ? option.substring(1) : option);
+                int type = ResourceType.fromOption(name);
+                if (type != 0) {
+                    if (isNegated) excluded |= type;
+                    else included |= type;
+                } else if (name.equals("third-party") || name.equals("3p")) {
+                    flags |= (isNegated ? FIRST_PARTY : THIRD_PARTY);
+                } else if (name.equals("first-party") || name.equals("1p")) {
+                    flags |= (isNegated ? THIRD_PARTY : FIRST_PARTY);
+                } else if (name.equals("match-case")) {
+                    flags |= MATCH_CASE;
+                } else if (name.startsWith("domain=")) {
+                    List<String> include = new ArrayList<>();
+                    List<String> exclude = new ArrayList<>();
+                    for (String domain : name.substring(7).split("\\|")) {
+                        if (domain.startsWith("~")) exclude.add(domain.substring(1));
+                        else if (!domain.isEmpty()) include.add(domain);
+                    }
+                    domains = include.toArray(NO_DOMAINS);
+                    excludedDomains = exclude.toArray(NO_DOMAINS);
+                } else if (!name.equals("important") && !name.isEmpty()) {
+                    // Unknown options like popup, csp or redirect could change the meaning of the rule
+                    return null;
+                }
+            }
+            if (included != 0) types = included;
+            types &= ~excluded;
+            if (types == 0) return null;
+            // Keep the original case for match-case rules
+            rule = rule.substring(0, optionsStart);
+        }
+
+        Pattern regex = null;
+        String pattern = rule;
+        if (pattern.length() > 2 && pattern.startsWith("/") && pattern.endsWith("/")) {
+            try {
+                int regexFlags = ((flags & MATCH_CASE) != 0 ? 0 : Pattern.CASE_INSENSITIVE);
+                regex = Pattern.compile(pattern.substring(1, pattern.length() - 1), regexFlags);
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+            pattern = "";
+        } else {
+            if (pattern.startsWith("||")) {
+                flags |= HOST_ANCHOR;
+                pattern = pattern.substring(2);
+            } else if (pattern.startsWith("|")) {
+                flags |= START_ANCHOR;
+                pattern = pattern.substring(1);
+            }
+            if (pattern.endsWith("|")) {
+                flags |= END_ANCHOR;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            pattern = normalizeWildcards(pattern);
+            if (pattern.startsWith("*")) {
+                // A leading wildcard removes the start anchors
+                flags &= ~(HOST_ANCHOR | START_ANCHOR);
+                pattern = pattern.substring(1);
+            }
+            if (pattern.endsWith("*") && (flags & END_ANCHOR) == 0) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            if ((flags & MATCH_CASE) == 0) {
+                pattern = pattern.toLowerCase(Locale.ROOT);
+            }
+        }
+        return new NetworkFilter(flags, types, pattern, regex, domains, excludedDomains);
+    }
+
+    private static String normalizeWildcards(String pattern) {
+        if (!pattern.contains("**")) {
+            return pattern;
+        }
+        StringBuilder builder = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '*' || builder.length() == 0 || builder.charAt(builder.length() - 1) != '*') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    public boolean isException() {
+        return (flags & EXCEPTION) != 0;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    boolean isRegex() {
+        return regex != null;
+    }
+
+    boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    // The host range may be empty for URLs without host, documentHost is null if it is not known
+    public boolean matches(CharSequence url, int hostStart, int hostEnd, String documentHost, int type) {
+        if ((types & type) == 0 || !matchesParty(url, hostStart, hostEnd, documentHost) || !matchesDomains(documentHost)) {
+            return false;
+        }
+        if (regex != null) {
+            return regex.matcher(url).find();
+        }
+        if ((flags & HOST_ANCHOR) != 0) {
+            // The pattern has to start at the beginning of a label of the host
+            for (int i = hostStart; i < hostEnd; i++) {
+                if ((i == hostStart || url.charAt(i - 1) == '.') && matchesAt(url, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if ((flags & START_ANCHOR) != 0) {
+            return matchesAt(url, 0);
+        }
+        if (pattern.isEmpty()) {
+            return true;
+        }
+        char first = pattern.charAt(0);
+        for (int i = 0; i < url.length(); i++) {
+            if ((first == '^' || charMatches(first, url.charAt(i))) && matchesAt(url, i)) {
+                return true;
+            }
+        }
+        return first == '^' && matchesAt(url, url.length());
+    }
+
+    private boolean matchesParty(CharSequence url, int hostStart, int hostEnd, String documentHost) {
+        if ((flags & (THIRD_PARTY | FIRST_PARTY)) == 0) {
+            return true;
+        }
+        if (documentHost == null || hostStart >= hostEnd) {
+            return false;
+        }
+        boolean isThirdParty = Domains.isThirdParty(url, hostStart, hostEnd, documentHost);
+        return (flags & (isThirdParty ? THIRD_PARTY : FIRST_PARTY)) != 0;
+    }
+
+    private boolean matchesDomains(String documentHost) {
+        if (domains.length == 0 && excludedDomains.length == 0) {
+            return true;
+        }
+        if (documentHost == null) {
+            return domains.length == 0;
+        }
+        for (String domain : excludedDomains) {
+            if (Domains.isSubdomainOf(documentHost, domain)) return false;
+        }
+        if (domains.length == 0) {
+            return true;
+        }
+        for (String domain : domains) {
+            if (Domains.isSubdomainOf(documentHost, domain)) return true;
+        }
+        return false;
+    }
+
+    // Wildcard matching starting at url[start], backtracking to the last '*' on a mismatch
+    private boolean matchesAt(CharSequence url, int start) {
+        int length = url.length();
+        int p = 0;
+        int s = start;
+        int starP = -1;
+        int starS = -1;
+        while (true) {
+            if (p == pattern.length()) {
+                if ((flags & END_ANCHOR) == 0 || s == length) return true;
+            } else {
+                char c = pattern.charAt(p);
+                if (c == '*') {
+                    starP = p++;
+                    starS = s;
+                    continue;
+                }
+                if (s < length && charMatches(c, url.charAt(s))) {
+                    p++;
+                    s++;
+                    continue;
+                }
+                if (c == '^' && s == length) {
+                    // The separator also matches the end of the URL
+                    p++;
+                    continue;
+                }
+            }
+            if (starP < 0 || starS >= length) {
+                return false;
+            }
+            p = starP + 1;
+            s = ++starS;
+        }
+    }
+
+    private boolean charMatches(char patternChar, char urlChar) {
+        if (patternChar == '^') {
+            return isSeparator(urlChar);
+        }
+        return patternChar == ((flags & MATCH_CASE) != 0 ? urlChar : Domains.toLowerCase(urlChar));
+    }
+
+    static boolean isSeparator(char c) {
+        return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '-' || c == '.' || c == '%');
+    }
+
+    void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(flags);
+        output.writeInt(types);
+        output.writeUTF(regex != null ? regex.pattern() : pattern);
+        output.writeBoolean(regex != null);
+        writeDomains(output, domains);
+        writeDomains(output, excludedDomains);
+    }
+
+    static NetworkFilter readFrom(DataInputStream input) throws IOException {
+        int flags = input.readInt();
+        int types = input.readInt();
+        String pattern = input.readUTF();
+        Pattern regex = null;
+        if (input.readBoolean()) {
+            regex = Pattern.compile(pattern, (flags & MATCH_CASE) != 0 ? 0 : Pattern.CASE_INSENSITIVE);
+            pattern = "";
+        }
+        return new NetworkFilter(flags, types, pattern, regex, readDomains(input), readDomains(input));
+    }
+
+    private static void writeDomains(DataOutputStream output, String[] domains) throws IOException {
+        output.writeShort(domains.length);
+        for (String domain : domains) {
+            output.writeUTF(domain);
+        }
+    }
+
+    private static String[] readDomains(DataInputStream input) throws IOException {
+        int count = input.readUnsignedShort();
+        if (count == 0) {
+            return NO_DOMAINS;
+        }
+        String[] domains = new String[count];
+        for (int i = 0; i < count; i++) {
+            domains[i] = input.readUTF();
+        }
+        return domains;
+    }
+}
@@ -0,0 +1,115 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// The intercepted requests of one page load: when each started relative to the first, on which
+// thread, how long the interception took and what the request was. Written as tab separated lines,
+// so traces recorded on a device can be replayed through the InterceptionPipeline on the JVM.
+public final class RequestTrace {
+    private static final String HEADER = "# request trace 1";
+    // Long pages are cut off, the beginning of the load is the part that matters
+    private static final int MAX_REQUESTS = 5000;
+
+    public static final class Request {
+        public final long offsetNanos;
+        public final long durationNanos;
+        public final String thread;
+        public final int type;
+        public final boolean isMainFrame;
+        public final String documentHost;
+        public final String url;
+
+        public Request(long offsetNanos, long durationNanos, String thread, int type, boolean isMainFrame,
+                       String documentHost, String url) {
+            this.offsetNanos = offsetNanos;
+            this.durationNanos = durationNanos;
+            this.thread = thread;
+            this.type = type;
+            this.isMainFrame = isMainFrame;
+            this.documentHost = documentHost;
+            this.url = url;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    // Guarded by itself
+    private final List<Request> requests = new ArrayList<>();
+
+    public RequestTrace() {
+    }
+
+    private RequestTrace(List<Request> requests) {
+        this.requests.addAll(requests);
+    }
+
+    // Called from WebView's I/O threads with the start of the interception from System.nanoTime()
+    public void record(long startNanos, long durationNanos, int type, boolean isMainFrame, String documentHost,
+                       String url) {
+        Request request = new Request(startNanos - this.startNanos, durationNanos, Thread.currentThread().getName(),
+                type, isMainFrame, documentHost, url);
+        synchronized (requests) {
+            if (requests.size() < MAX_REQUESTS) requests.add(request);
+        }
+    }
+
+    // In the order of their start
+    public List<Request> getRequests() {
+        List<Request> sorted;
+        synchronized (requests) {
+            sorted = new ArrayList<>(requests);
+        }
+        Collections.sort(sorted, new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b) {
+                return Long.compare(a.offsetNanos, b.offsetNanos);
+            }
+        });
+        return sorted;
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Request request : getRequests()) {
+            writer.write(request.offsetNanos + "\t" + request.durationNanos + "\t" + clean(request.thread) + "\t"
+                    + request.type + "\t" + (request.isMainFrame ? 1 : 0) + "\t"
+                    + (request.documentHost != null ? clean(request.documentHost) : "") + "\t"
+                    + clean(request.url) + "\n");
+        }
+        writer.flush();
+    }
+
+    public static RequestTrace readFrom(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        if (!HEADER.equals(lines.readLine())) {
+            throw new IOException("Not a request trace");
+        }
+        List<Request> requests = new ArrayList<>();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] fields = line.split("\t", 7);
+            if (fields.length != 7) {
+                throw new IOException("Malformed trace line: " + line);
+            }
+            try {
+                requests.add(new Request(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2],
+                        Integer.parseInt(fields[3]), fields[4].equals("1"), (fields[5].isEmpty() ? null : fields[5]),
+                        fields[6]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed trace line: " + line, e);
+            }
+        }
+        return new RequestTrace(requests);
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+}
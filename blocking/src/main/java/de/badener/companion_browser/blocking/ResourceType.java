@@ -0,0 +1,115 @@
+package de.badener.companion_browser.blocking;
+
+// Resource types of requests as used by the type options of filter rules, combined as bit masks
+public final class ResourceType {
+    public static final int OTHER = 1;
+    public static final int SCRIPT = 1 << 1;
+    public static final int IMAGE = 1 << 2;
+    public static final int STYLESHEET = 1 << 3;
+    public static final int XMLHTTPREQUEST = 1 << 4;
+    public static final int SUBDOCUMENT = 1 << 5;
+    public static final int DOCUMENT = 1 << 6;
+    public static final int MEDIA = 1 << 7;
+    public static final int FONT = 1 << 8;
+    public static final int OBJECT = 1 << 9;
+    public static final int PING = 1 << 10;
+    public static final int WEBSOCKET = 1 << 11;
+
+    // Rules without type options apply to everything except the top level document
+    public static final int DEFAULT = (1 << 12) - 1 & ~DOCUMENT;
+
+    // Lower case extensions and the types they are guessed as
+    private static final String[] EXTENSIONS = {"js", "mjs", "css", "png", "jpg", "jpeg", "gif", "webp", "svg",
+            "ico", "bmp", "avif", "woff", "woff2", "ttf", "otf", "eot", "mp4", "webm", "m3u8", "mpd", "ts", "mp3",
+            "ogg", "m4a", "aac", "html", "htm"};
+    private static final int[] EXTENSION_TYPES = {SCRIPT, SCRIPT, STYLESHEET, IMAGE, IMAGE, IMAGE, IMAGE, IMAGE,
+            IMAGE, IMAGE, IMAGE, IMAGE, FONT, FONT, FONT, FONT, FONT, MEDIA, MEDIA, MEDIA, MEDIA, MEDIA, MEDIA,
+            MEDIA, MEDIA, MEDIA, SUBDOCUMENT, SUBDOCUMENT};
+
+    private ResourceType() {
+    }
+
+    // Returns the type of a filter option or 0 if it is no type option
+    public static int fromOption(String option) {
+        switch (option) {
+            case "other":
+                return OTHER;
+            case "script":
+                return SCRIPT;
+            case "image":
+                return IMAGE;
+            case "stylesheet":
+            case "css":
+                return STYLESHEET;
+            case "xmlhttprequest":
+            case "xhr":
+                return XMLHTTPREQUEST;
+            case "subdocument":
+            case "frame":
+                return SUBDOCUMENT;
+            case "document":
+            case "doc":
+                return DOCUMENT;
+            case "media":
+                return MEDIA;
+            case "font":
+                return FONT;
+            case "object":
+                return OBJECT;
+            case "ping":
+            case "beacon":
+                return PING;
+            case "websocket":
+                return WEBSOCKET;
+            default:
+                return 0;
+        }
+    }
+
+    // WebView does not report the type of a request, guess it from the Accept header and the path
+    public static int guess(CharSequence url, String accept, boolean isMainFrame) {
+        if (isMainFrame) {
+            return DOCUMENT;
+        }
+        if (accept != null) {
+            if (accept.startsWith("text/css")) return STYLESHEET;
+            if (accept.startsWith("image/")) return IMAGE;
+            if (accept.startsWith("text/html")) return SUBDOCUMENT;
+        }
+        return typeOfExtension(url);
+    }
+
+    // The type of the extension of the last path segment, compared in place since this runs for every request
+    static int typeOfExtension(CharSequence url) {
+        int end = url.length();
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        for (int i = end - 1; i >= 0 && end - i <= 6; i--) {
+            char c = url.charAt(i);
+            if (c == '.') {
+                for (int j = 0; j < EXTENSIONS.length; j++) {
+                    if (matches(EXTENSIONS[j], url, i + 1, end)) return EXTENSION_TYPES[j];
+                }
+                break;
+            } else if (c == '/') {
+                break;
+            }
+        }
+        return OTHER;
+    }
+
+    private static boolean matches(String extension, CharSequence url, int start, int end) {
+        if (extension.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < extension.length(); i++) {
+            if (extension.charAt(i) != Domains.toLowerCase(url.charAt(start + i))) return false;
+        }
+        return true;
+    }
+}
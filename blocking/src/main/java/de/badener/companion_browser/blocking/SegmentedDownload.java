@@ -0,0 +1,425 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Download of one file over several connections with HTTP range requests. The ranges are written
+// into a preallocated part file with positional writes. A journal next to it records how far every
+// range got, so an interrupted download continues where it stopped if the file did not change.
+// Servers without range support get a single connection.
+public class SegmentedDownload {
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_RETRIES = 3;
+    private static final long JOURNAL_INTERVAL_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    public interface Listener {
+        // Called about once a second from the thread running the download
+        void onProgress(SegmentedDownload download);
+
+        void onFinished(SegmentedDownload download);
+
+        void onFailed(SegmentedDownload download, IOException e);
+    }
+
+    private final URL url;
+    private final File target;
+    private final File partFile;
+    private final File journalFile;
+    private final Map<String, String> headers;
+    private final int maxConnections;
+    private final Executor executor;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private volatile long length = -1;
+    private volatile boolean isCancelled;
+    // Set by the first segment that finds the file changed, the others stop then
+    private volatile boolean isChanged;
+    private String validator;
+    private long startTime;
+    private long resumedBytes;
+    private volatile long bytesPerSecond;
+
+    // Headers like Cookie and User-Agent are sent with every request
+    public SegmentedDownload(URL url, File target, Map<String, String> headers, int maxConnections,
+                             Executor executor) {
+        this.url = url;
+        this.target = target;
+        this.partFile = new File(target.getPath() + ".part");
+        this.journalFile = new File(target.getPath() + ".journal");
+        this.headers = headers;
+        this.maxConnections = maxConnections;
+        this.executor = executor;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    // Total size or -1 while it is not known
+    public long getLength() {
+        return length;
+    }
+
+    public long getDownloadedBytes() {
+        long downloaded = 0;
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                downloaded += segment.position.get() - segment.start;
+            }
+        }
+        return downloaded;
+    }
+
+    // Throughput over the last second
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    // Bytes this run has downloaded, excluding what was resumed from the journal
+    public long getTransferredBytes() {
+        return getDownloadedBytes() - resumedBytes;
+    }
+
+    public long getElapsedMillis() {
+        return (startTime == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    public int getConnectionCount() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+
+    // The part file and the journal are kept, so the download can be resumed later
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    // Blocks until the download has finished, failed or was cancelled
+    public void run(Listener listener) {
+        startTime = System.nanoTime();
+        try {
+            try {
+                if (!resume()) start();
+                resumedBytes = getDownloadedBytes();
+                awaitSegments(listener);
+            } catch (FileChangedException e) {
+                // The journal belongs to an older version of the file, download it again from the start
+                discard();
+                start();
+                resumedBytes = 0;
+                awaitSegments(listener);
+            }
+            if (isCancelled) {
+                throw new IOException("Cancelled");
+            }
+            if (target.exists() && !target.delete() || !partFile.renameTo(target)) {
+                throw new IOException("Cannot rename to " + target);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            journalFile.delete();
+            listener.onFinished(this);
+        } catch (IOException e) {
+            // Only a download with a journal can be continued, anything else would stay behind
+            if (e instanceof FileChangedException || !journalFile.exists()) discard();
+            listener.onFailed(this, e);
+        }
+    }
+
+    private void discard() {
+        synchronized (segments) {
+            segments.clear();
+        }
+        validator = null;
+        length = -1;
+        isChanged = false;
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        partFile.delete();
+    }
+
+    // Continue from the journal if the server still has the same file
+    private boolean resume() throws IOException {
+        if (!journalFile.exists() || !partFile.exists()) {
+            return false;
+        }
+        Properties journal = new Properties();
+        try (InputStream input = new FileInputStream(journalFile)) {
+            journal.load(input);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!url.toString().equals(journal.getProperty("url")) || journal.getProperty("validator") == null) {
+            return false;
+        }
+        validator = journal.getProperty("validator");
+        try {
+            length = Long.parseLong(journal.getProperty("length"));
+            for (String range : journal.getProperty("segments").split(",")) {
+                String[] values = range.split("-");
+                segments.add(new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                        Long.parseLong(values[2])));
+            }
+        } catch (RuntimeException e) {
+            segments.clear();
+            return false;
+        }
+        if (partFile.length() != length) {
+            segments.clear();
+            return false;
+        }
+        return true;
+    }
+
+    // Probe for range support with the first byte, then split the file into segments
+    private void start() throws IOException {
+        HttpURLConnection connection = open();
+        connection.setRequestProperty("Range", "bytes=0-");
+        int status = connection.getResponseCode();
+        String contentRange = connection.getHeaderField("Content-Range");
+        long total = (status == HttpURLConnection.HTTP_PARTIAL && contentRange != null ?
+                parseTotal(contentRange) : connection.getContentLengthLong());
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        // Weak ETags cannot be used with If-Range
+        String fileValidator = (etag != null && !etag.startsWith("W/") ? etag : lastModified);
+        if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            throw new IOException("Unexpected response " + status + " for " + url);
+        }
+
+        boolean isSegmented = status == HttpURLConnection.HTTP_PARTIAL && total > 0 && fileValidator != null;
+        // Only ranges are checked against the validator, a single connection starts over instead
+        validator = (isSegmented ? fileValidator : null);
+        length = total;
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(Math.max(0, total));
+        }
+        if (!isSegmented) {
+            // One connection, reusing the response of the probe
+            segments.add(new Segment(0, total > 0 ? total : Long.MAX_VALUE, 0));
+            segments.get(0).connection = connection;
+            //noinspection ResultOfMethodCallIgnored
+            journalFile.delete();
+            return;
+        }
+        int count = (int) Math.max(1, Math.min(maxConnections, total / MIN_SEGMENT_SIZE));
+        long size = total / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            segments.add(new Segment(start, (i == count - 1 ? total : start + size), start));
+        }
+        // The probe response becomes the first segment, its request had no end
+        segments.get(0).connection = connection;
+        writeJournal(getPositions());
+    }
+
+    private static long parseTotal(String contentRange) {
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return (slash < 0 ? -1 : Long.parseLong(contentRange.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void awaitSegments(Listener listener) throws IOException {
+        final CountDownLatch done = new CountDownLatch(segments.size());
+        try (final FileChannel channel = new RandomAccessFile(partFile, "rw").getChannel()) {
+            for (final Segment segment : segments) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            download(segment, channel);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            long lastBytes = getDownloadedBytes();
+            try {
+                while (!done.await(JOURNAL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    long bytes = getDownloadedBytes();
+                    bytesPerSecond = (bytes - lastBytes) * 1000 / JOURNAL_INTERVAL_MILLIS;
+                    lastBytes = bytes;
+                    // The journal may only claim bytes that are on disk, so the positions are taken
+                    // before forcing, bytes written meanwhile are not recorded
+                    long[] positions = getPositions();
+                    channel.force(false);
+                    if (validator != null && length > 0) writeJournal(positions);
+                    listener.onProgress(this);
+                }
+            } catch (InterruptedException e) {
+                isCancelled = true;
+                Thread.currentThread().interrupt();
+            }
+            // All segments have stopped writing
+            channel.force(false);
+        }
+        if (validator != null && length > 0 && getDownloadedBytes() < length) {
+            writeJournal(getPositions());
+        }
+        // A changed file makes the other segments stop, so it is reported first
+        for (Segment segment : segments) {
+            if (segment.error instanceof FileChangedException) throw segment.error;
+        }
+        for (Segment segment : segments) {
+            if (segment.error != null) throw segment.error;
+        }
+    }
+
+    // Fetch the rest of the segment, retrying from where the connection broke off
+    private void download(Segment segment, FileChannel channel) {
+        byte[] buffer = new byte[64 * 1024];
+        int retries = 0;
+        while (!isCancelled && !isChanged && segment.position.get() < segment.end) {
+            HttpURLConnection connection = segment.connection;
+            segment.connection = null;
+            try {
+                if (connection == null) {
+                    connection = open();
+                    connection.setRequestProperty("Range", "bytes=" + segment.position.get() + "-"
+                            + (segment.end == Long.MAX_VALUE ? "" : String.valueOf(segment.end - 1)));
+                    // A changed file is sent complete with 200 instead of the range
+                    if (validator != null) connection.setRequestProperty("If-Range", validator);
+                    int status = connection.getResponseCode();
+                    if (status == HttpURLConnection.HTTP_OK && validator != null) {
+                        segment.error = new FileChangedException(url);
+                        isChanged = true;
+                        return;
+                    }
+                    if (status == HttpURLConnection.HTTP_OK && segment.start == 0) {
+                        // A server without range support sends the whole file again
+                        segment.position.set(0);
+                    } else if (status != HttpURLConnection.HTTP_PARTIAL) {
+                        throw new IOException("Range not served, response " + connection.getResponseCode());
+                    }
+                }
+                try (InputStream input = connection.getInputStream()) {
+                    int count;
+                    while (!isCancelled && !isChanged && segment.position.get() < segment.end
+                            && (count = input.read(buffer, 0,
+                            (int) Math.min(buffer.length, segment.end - segment.position.get()))) > 0) {
+                        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+                        long position = segment.position.get();
+                        while (bytes.hasRemaining()) {
+                            position += channel.write(bytes, position);
+                        }
+                        segment.position.set(position);
+                        retries = 0;
+                    }
+                }
+                if (segment.end == Long.MAX_VALUE) {
+                    // Unknown length, the end of the stream is the end of the file
+                    length = segment.position.get();
+                    segment.end = length;
+                }
+            } catch (IOException e) {
+                if (++retries > MAX_RETRIES) {
+                    segment.error = e;
+                    return;
+                }
+                try {
+                    Thread.sleep(500L << retries);
+                } catch (InterruptedException interrupted) {
+                    segment.error = e;
+                    return;
+                }
+            } finally {
+                if (connection != null) connection.disconnect();
+            }
+        }
+        if (segment.connection != null) segment.connection.disconnect();
+    }
+
+    private HttpURLConnection open() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        // Ranges of compressed responses would not fit together
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private long[] getPositions() {
+        synchronized (segments) {
+            long[] positions = new long[segments.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = segments.get(i).position.get();
+            }
+            return positions;
+        }
+    }
+
+    // url, length, validator and start-end-position of every segment
+    private void writeJournal(long[] positions) throws IOException {
+        Properties journal = new Properties();
+        journal.setProperty("url", url.toString());
+        journal.setProperty("length", Long.toString(length));
+        journal.setProperty("validator", validator);
+        StringBuilder ranges = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (ranges.length() > 0) ranges.append(',');
+            ranges.append(segment.start).append('-').append(segment.end).append('-').append(positions[i]);
+        }
+        journal.setProperty("segments", ranges.toString());
+        File temporary = new File(journalFile.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temporary)) {
+            journal.store(output, null);
+        }
+        if (!temporary.renameTo(journalFile)) {
+            throw new IOException("Cannot write " + journalFile);
+        }
+    }
+
+    // The server answered If-Range with the whole file, the journal is outdated
+    private static final class FileChangedException extends IOException {
+        FileChangedException(URL url) {
+            super("File changed on the server: " + url);
+        }
+    }
+
+    private static final class Segment {
+        final long start;
+        volatile long end;
+        final AtomicLong position;
+        volatile HttpURLConnection connection;
+        volatile IOException error;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = new AtomicLong(position);
+        }
+    }
+}
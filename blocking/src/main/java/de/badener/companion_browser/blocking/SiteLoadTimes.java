@@ -0,0 +1,97 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Load times of the recently visited sites, apart for pages loaded with and without the lite profile,
+// so that both can be compared. Only the most recently loaded sites are kept.
+public final class SiteLoadTimes {
+    private final int capacity;
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, Site> sites;
+
+    public static final class Site {
+        private long fullCount;
+        private long fullNanos;
+        private long liteCount;
+        private long liteNanos;
+
+        public synchronized long getFullCount() {
+            return fullCount;
+        }
+
+        public synchronized long getLiteCount() {
+            return liteCount;
+        }
+
+        // Average load times, -1 if there was no such load
+        public synchronized long getFullMillis() {
+            return (fullCount == 0 ? -1 : fullNanos / fullCount / 1_000_000);
+        }
+
+        public synchronized long getLiteMillis() {
+            return (liteCount == 0 ? -1 : liteNanos / liteCount / 1_000_000);
+        }
+
+        synchronized void record(boolean isLite, long nanos) {
+            if (isLite) {
+                liteCount++;
+                liteNanos += nanos;
+            } else {
+                fullCount++;
+                fullNanos += nanos;
+            }
+        }
+    }
+
+    public SiteLoadTimes(final int capacity) {
+        this.capacity = capacity;
+        this.sites = new LinkedHashMap<String, Site>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Site> eldest) {
+                return size() > SiteLoadTimes.this.capacity;
+            }
+        };
+    }
+
+    public void record(String host, boolean isLite, long nanos) {
+        if (host == null || nanos < 0) return;
+        String key = host.toLowerCase(Locale.ROOT);
+        Site site;
+        synchronized (this) {
+            site = sites.get(key);
+            if (site == null) {
+                site = new Site();
+                sites.put(key, site);
+            }
+        }
+        site.record(isLite, nanos);
+    }
+
+    // Null if the site has not been loaded recently
+    public synchronized Site get(String host) {
+        return (host != null ? sites.get(host.toLowerCase(Locale.ROOT)) : null);
+    }
+
+    public synchronized void clear() {
+        sites.clear();
+    }
+
+    public synchronized void appendJson(StringBuilder json) {
+        json.append('[');
+        boolean isFirst = true;
+        for (Map.Entry<String, Site> entry : sites.entrySet()) {
+            if (!isFirst) json.append(',');
+            isFirst = false;
+            Site site = entry.getValue();
+            json.append("{\"host\":");
+            NavigationStats.appendString(json, entry.getKey());
+            json.append(",\"fullLoads\":").append(site.getFullCount())
+                    .append(",\"fullMillis\":").append(site.getFullMillis())
+                    .append(",\"liteLoads\":").append(site.getLiteCount())
+                    .append(",\"liteMillis\":").append(site.getLiteMillis()).append('}');
+        }
+        json.append(']');
+    }
+}
@@ -0,0 +1,154 @@
+package de.badener.companion_browser.blocking;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Per-site settings packed into an int: JavaScript, storage and how strictly requests are blocked.
+// The profile of the most specific listed domain applies. Sites are kept in an open addressing table
+// that is rebuilt on changes, a lookup hashes all suffixes of the host in one pass from its end and
+// neither locks nor allocates, so it can run for every navigation and on WebView's I/O threads.
+public final class SiteProfiles {
+    public static final int JAVASCRIPT = 1;
+    public static final int STORAGE = 1 << 1;
+    // Two bits with the blocking level
+    private static final int BLOCKING_SHIFT = 2;
+    private static final int BLOCKING_MASK = 3 << BLOCKING_SHIFT;
+    // Follow the switch of the app, never block or also block third-party scripts and frames
+    public static final int BLOCKING_DEFAULT = 0;
+    public static final int BLOCKING_OFF = 1;
+    public static final int BLOCKING_STRICT = 2;
+
+    public static final int DEFAULT = JAVASCRIPT | STORAGE;
+    // Without scripts and persistent storage
+    public static final int LITE = 0;
+
+    private static final class Table {
+        final String[] keys;
+        final int[] values;
+        final int mask;
+
+        Table(Map<String, Integer> sites) {
+            int capacity = Integer.highestOneBit(Math.max(1, sites.size()) * 2) * 2;
+            keys = new String[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            for (Map.Entry<String, Integer> site : sites.entrySet()) {
+                int slot = spread(site.getKey().hashCode()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = site.getKey();
+                values[slot] = site.getValue();
+            }
+        }
+    }
+
+    private static final Table EMPTY = new Table(Collections.<String, Integer>emptyMap());
+
+    private volatile Map<String, Integer> sites = Collections.emptyMap();
+    private volatile Table table = EMPTY;
+
+    public static boolean isJavaScriptEnabled(int profile) {
+        return (profile & JAVASCRIPT) != 0;
+    }
+
+    public static boolean isStorageEnabled(int profile) {
+        return (profile & STORAGE) != 0;
+    }
+
+    public static int getBlocking(int profile) {
+        return (profile & BLOCKING_MASK) >>> BLOCKING_SHIFT;
+    }
+
+    public static int withBlocking(int profile, int blocking) {
+        return (profile & ~BLOCKING_MASK) | (blocking << BLOCKING_SHIFT);
+    }
+
+    // Scripts and storage are what makes pages heavy, blocking does not count
+    public static boolean isLite(int profile) {
+        return (profile & (JAVASCRIPT | STORAGE)) == LITE;
+    }
+
+    public int get(String host) {
+        return (host != null ? get(host, 0, host.length()) : DEFAULT);
+    }
+
+    // The profile of the host in text[start, end)
+    public int get(CharSequence text, int start, int end) {
+        Table current = table;
+        if (current == EMPTY) {
+            return DEFAULT;
+        }
+        int profile = DEFAULT;
+        // String.hashCode() of text[i, end) is c[i] * 31^(end - 1 - i) plus the hash of text[i + 1, end)
+        int hash = 0;
+        int power = 1;
+        for (int i = end - 1; i >= start; i--) {
+            hash += toLowerCase(text.charAt(i)) * power;
+            power *= 31;
+            if (i == start || text.charAt(i - 1) == '.') {
+                int slot = spread(hash) & current.mask;
+                String key;
+                while ((key = current.keys[slot]) != null) {
+                    if (matches(key, text, i, end)) {
+                        // Continue with the subdomains, the most specific domain wins
+                        profile = current.values[slot];
+                        break;
+                    }
+                    slot = (slot + 1) & current.mask;
+                }
+            }
+        }
+        return profile;
+    }
+
+    public synchronized void set(String host, int profile) {
+        Map<String, Integer> updated = new HashMap<>(sites);
+        updated.put(host.toLowerCase(Locale.ROOT), profile);
+        publish(updated);
+    }
+
+    // Replace all sites at once, e.g. when they are loaded, instead of rebuilding the table for every site
+    public synchronized void setAll(Map<String, Integer> profiles) {
+        Map<String, Integer> updated = new HashMap<>(profiles.size() * 2);
+        for (Map.Entry<String, Integer> site : profiles.entrySet()) {
+            updated.put(site.getKey().toLowerCase(Locale.ROOT), site.getValue());
+        }
+        publish(updated);
+    }
+
+    public synchronized void remove(String host) {
+        Map<String, Integer> updated = new HashMap<>(sites);
+        updated.remove(host.toLowerCase(Locale.ROOT));
+        publish(updated);
+    }
+
+    public Map<String, Integer> getSites() {
+        return sites;
+    }
+
+    private void publish(Map<String, Integer> updated) {
+        sites = Collections.unmodifiableMap(updated);
+        table = (updated.isEmpty() ? EMPTY : new Table(updated));
+    }
+
+    private static boolean matches(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != toLowerCase(text.charAt(start + i))) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+    }
+}
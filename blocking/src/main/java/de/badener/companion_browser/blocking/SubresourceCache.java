@@ -0,0 +1,666 @@
+package de.badener.companion_browser.blocking;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Disk cache for static subresources of selected sites, served in place of the network. Only GET
+// responses that are immutable or fresh for at least an hour are stored. Fresh entries are served
+// without a request, stale ones are revalidated with their ETag or Last-Modified. Bodies are
+// stored under the SHA-1 of their content while they are streamed to the page, so a response
+// is cached without waiting for it and identical files are stored once. The index of all entries
+// is kept in memory in least recently used order and entries are evicted beyond the size budget.
+public final class SubresourceCache {
+    private static final String INDEX_FILE = "index.txt";
+    private static final long MIN_LIFETIME_MILLIS = 3600 * 1000L;
+    // Immutable responses are fresh for a year, like in browsers
+    private static final long IMMUTABLE_LIFETIME_MILLIS = 365 * 24 * 3600 * 1000L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    // Cookies of the browser, sent with requests and updated from responses
+    public interface Cookies {
+        String get(String url);
+
+        void set(String url, List<String> values);
+    }
+
+    public static final class Response {
+        private final int statusCode;
+        private final String reasonPhrase;
+        private final String mimeType;
+        private final String encoding;
+        private final Map<String, String> headers;
+        private final InputStream data;
+        private final boolean isFromCache;
+
+        Response(int statusCode, String reasonPhrase, String mimeType, String encoding,
+                 Map<String, String> headers, InputStream data, boolean isFromCache) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = headers;
+            this.data = data;
+            this.isFromCache = isFromCache;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getReasonPhrase() {
+            return reasonPhrase;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public InputStream getData() {
+            return data;
+        }
+
+        // False if the body comes from the network
+        public boolean isFromCache() {
+            return isFromCache;
+        }
+    }
+
+    private static final class Entry {
+        final String url;
+        final String hash;
+        final long size;
+        final String contentType;
+        final String etag;
+        final String lastModified;
+        // Cross-origin fonts and scripts need them again when served from the cache
+        final String allowOrigin;
+        final String allowCredentials;
+        volatile long freshUntil;
+
+        Entry(String url, String hash, long size, String contentType, String etag, String lastModified,
+              String allowOrigin, String allowCredentials, long freshUntil) {
+            this.url = url;
+            this.hash = hash;
+            this.size = size;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.allowOrigin = allowOrigin;
+            this.allowCredentials = allowCredentials;
+            this.freshUntil = freshUntil;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final Executor executor;
+    private final Cookies cookies;
+
+    // Guarded by this, entries by URL from the least to the most recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // Guarded by this, number of entries per body
+    private final Map<String, Integer> references = new HashMap<>();
+    private long totalSize;
+    private boolean isIndexWriteScheduled;
+    private volatile boolean isLoaded;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong servedBytes = new AtomicLong();
+
+    // Index writes and deletions run on the executor, cookies may be null
+    public SubresourceCache(File directory, long maxBytes, Executor executor, Cookies cookies) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.cookies = cookies;
+    }
+
+    // Read the index, requests pass through to the network until it is loaded
+    public void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(directory, INDEX_FILE)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 9 || !body(fields[1]).exists()) continue;
+                try {
+                    Entry entry = new Entry(fields[0], fields[1], Long.parseLong(fields[2]), emptyToNull(fields[3]),
+                            emptyToNull(fields[4]), emptyToNull(fields[5]), emptyToNull(fields[6]),
+                            emptyToNull(fields[7]), Long.parseLong(fields[8]));
+                    synchronized (this) {
+                        add(entry);
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (FileNotFoundException ignored) {
+        }
+        // Bodies without an entry, like those of interrupted writes
+        File[] files = directory.listFiles();
+        for (File file : (files != null ? files : new File[0])) {
+            String name = file.getName();
+            boolean isUnused;
+            synchronized (this) {
+                isUnused = !name.equals(INDEX_FILE) && !references.containsKey(name);
+            }
+            if (isUnused) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        isLoaded = true;
+    }
+
+    // Returns the response for a GET request of a static subresource or null if the request should
+    // go to the network as usual. Request headers are those of the WebView, without cookies. Cookies
+    // are only sent and stored for requests to the site of the page, documentHost, like WebView
+    // blocks third-party cookies.
+    public Response get(String url, Map<String, String> requestHeaders, String documentHost) {
+        if (!isLoaded || containsKey(requestHeaders, "Range")) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(url);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.freshUntil) {
+            InputStream data = open(entry);
+            if (data != null) {
+                hits.incrementAndGet();
+                servedBytes.addAndGet(entry.size);
+                return cached(entry, data);
+            }
+        }
+        try {
+            return fetch(url, requestHeaders, entry, isSameSite(url, documentHost));
+        } catch (IOException e) {
+            // Let the WebView try on its own and report the error
+            return null;
+        }
+    }
+
+    private static boolean isSameSite(String url, String documentHost) {
+        long host = UrlHosts.find(url);
+        return documentHost != null && host != UrlHosts.NO_HOST
+                && !Domains.isThirdParty(url, UrlHosts.start(host), UrlHosts.end(host), documentHost);
+    }
+
+    private Response fetch(String url, Map<String, String> requestHeaders, Entry entry, boolean isSameSite)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            // HttpURLConnection decompresses only what it has asked for itself
+            if (!header.getKey().equalsIgnoreCase("Accept-Encoding")) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        boolean hasCookies = (cookies != null && isSameSite);
+        String cookie = (hasCookies ? cookies.get(url) : null);
+        if (cookie != null) connection.setRequestProperty("Cookie", cookie);
+        if (entry != null) {
+            if (entry.etag != null) connection.setRequestProperty("If-None-Match", entry.etag);
+            if (entry.lastModified != null) connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+        int status = connection.getResponseCode();
+        if (hasCookies) {
+            // Header names differ in case between servers
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if ("Set-Cookie".equalsIgnoreCase(header.getKey())) cookies.set(url, header.getValue());
+            }
+        }
+
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            connection.disconnect();
+            entry.freshUntil = System.currentTimeMillis() + Math.max(0, freshnessLifetime(connection) - age(connection));
+            scheduleIndexWrite();
+            InputStream data = open(entry);
+            if (data == null) {
+                throw new IOException("Cached body missing for " + url);
+            }
+            revalidations.incrementAndGet();
+            servedBytes.addAndGet(entry.size);
+            return cached(entry, data);
+        }
+        misses.incrementAndGet();
+        String contentType = connection.getContentType();
+        String allowOrigin = connection.getHeaderField("Access-Control-Allow-Origin");
+        String allowCredentials = connection.getHeaderField("Access-Control-Allow-Credentials");
+        Map<String, String> headers = responseHeaders(allowOrigin, allowCredentials);
+        if (status >= 300 && status < 400) {
+            // The WebView cannot receive redirects from here, it repeats the request itself
+            connection.disconnect();
+            return null;
+        }
+        InputStream input = (status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+        if (input == null) input = new ByteArrayInputStream(new byte[0]);
+        long lifetime = freshnessLifetime(connection);
+        boolean isCacheable = status == HttpURLConnection.HTTP_OK && lifetime >= MIN_LIFETIME_MILLIS
+                && connection.getURL().toString().equals(url) && isStorable(connection);
+        if (isCacheable) {
+            Entry template = new Entry(url, null, 0, contentType, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), allowOrigin, allowCredentials,
+                    System.currentTimeMillis() + lifetime - age(connection));
+            input = new WriteThroughStream(input, connection, template, connection.getContentLengthLong());
+        }
+        String reason = connection.getResponseMessage();
+        return new Response(status, (reason != null && !reason.isEmpty() ? reason : "OK"), mimeType(contentType),
+                charset(contentType), headers, input, false);
+    }
+
+    // Lifetime from Cache-Control or Expires, -1 if the response must not be stored
+    static long freshnessLifetime(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        long lifetime = -1;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("no-cache")) {
+                    return -1;
+                } else if (directive.equals("immutable")) {
+                    lifetime = Math.max(lifetime, IMMUTABLE_LIFETIME_MILLIS);
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        lifetime = Math.max(lifetime, Long.parseLong(directive.substring(8).trim()) * 1000);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        if (lifetime < 0) {
+            long expires = connection.getExpiration();
+            long date = connection.getDate();
+            if (expires > 0) lifetime = expires - (date > 0 ? date : System.currentTimeMillis());
+        }
+        return lifetime;
+    }
+
+    // Time the response has already spent in shared caches
+    private static long age(HttpURLConnection connection) {
+        return Math.max(0, connection.getHeaderFieldLong("Age", 0) * 1000);
+    }
+
+    private static boolean isStorable(HttpURLConnection connection) {
+        String vary = connection.getHeaderField("Vary");
+        if (vary != null) {
+            for (String header : vary.split(",")) {
+                String name = header.trim();
+                // The cache is per browser, so only variations it cannot reproduce matter. An allowed
+                // origin that depends on the page would be replayed to other sites, unless it is "*".
+                if (name.equalsIgnoreCase("Origin")) {
+                    if (!"*".equals(connection.getHeaderField("Access-Control-Allow-Origin"))) return false;
+                } else if (!name.isEmpty() && !name.equalsIgnoreCase("Accept-Encoding")
+                        && !name.equalsIgnoreCase("User-Agent")) {
+                    return false;
+                }
+            }
+        }
+        return connection.getHeaderField("Set-Cookie") == null;
+    }
+
+    private static boolean containsKey(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    private Response cached(Entry entry, InputStream data) {
+        return new Response(200, "OK", mimeType(entry.contentType), charset(entry.contentType),
+                responseHeaders(entry.allowOrigin, entry.allowCredentials), data, true);
+    }
+
+    private static Map<String, String> responseHeaders(String allowOrigin, String allowCredentials) {
+        if (allowOrigin == null && allowCredentials == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (allowOrigin != null) headers.put("Access-Control-Allow-Origin", allowOrigin);
+        if (allowCredentials != null) headers.put("Access-Control-Allow-Credentials", allowCredentials);
+        return headers;
+    }
+
+    private static String mimeType(String contentType) {
+        if (contentType == null) {
+            return "application/octet-stream";
+        }
+        int separator = contentType.indexOf(';');
+        return (separator < 0 ? contentType : contentType.substring(0, separator)).trim();
+    }
+
+    private static String charset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                    return parameter.substring(8).replace("\"", "");
+                }
+            }
+        }
+        return null;
+    }
+
+    private InputStream open(Entry entry) {
+        try {
+            return new FileInputStream(body(entry.hash));
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                if (entries.get(entry.url) == entry) remove(entry);
+            }
+            scheduleIndexWrite();
+            return null;
+        }
+    }
+
+    private File body(String hash) {
+        return new File(directory, hash);
+    }
+
+    private void store(Entry template, String hash, File temporary, long size) {
+        File body = body(hash);
+        Entry entry = new Entry(template.url, hash, size, template.contentType, template.etag,
+                template.lastModified, template.allowOrigin, template.allowCredentials, template.freshUntil);
+        synchronized (this) {
+            if (body.exists()) {
+                // The same content is already stored
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            } else if (!temporary.renameTo(body)) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+                return;
+            }
+            Entry previous = entries.get(entry.url);
+            if (previous != null) remove(previous);
+            add(entry);
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (totalSize > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                if (eldest == entry) break;
+                iterator.remove();
+                release(eldest);
+            }
+        }
+        scheduleIndexWrite();
+    }
+
+    // Both guarded by this
+    private void add(Entry entry) {
+        entries.put(entry.url, entry);
+        Integer count = references.get(entry.hash);
+        references.put(entry.hash, (count == null ? 1 : count + 1));
+        if (count == null) totalSize += entry.size;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.url);
+        release(entry);
+    }
+
+    private void release(final Entry entry) {
+        Integer count = references.get(entry.hash);
+        if (count != null && count > 1) {
+            references.put(entry.hash, count - 1);
+            return;
+        }
+        references.remove(entry.hash);
+        totalSize -= entry.size;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SubresourceCache.this) {
+                    // The same content may have been stored again meanwhile
+                    if (references.containsKey(entry.hash)) return;
+                    //noinspection ResultOfMethodCallIgnored
+                    body(entry.hash).delete();
+                }
+            }
+        });
+    }
+
+    // Remove all entries, for example when browsing data is cleared
+    public void clear() {
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                release(entry);
+            }
+            entries.clear();
+        }
+        scheduleIndexWrite();
+    }
+
+    private void scheduleIndexWrite() {
+        synchronized (this) {
+            if (isIndexWriteScheduled) return;
+            isIndexWriteScheduled = true;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        });
+    }
+
+    private void writeIndex() {
+        StringBuilder lines = new StringBuilder();
+        synchronized (this) {
+            isIndexWriteScheduled = false;
+            for (Entry entry : entries.values()) {
+                lines.append(entry.url).append('\t').append(entry.hash).append('\t').append(entry.size).append('\t')
+                        .append(nullToEmpty(entry.contentType)).append('\t').append(nullToEmpty(entry.etag)).append('\t')
+                        .append(nullToEmpty(entry.lastModified)).append('\t').append(nullToEmpty(entry.allowOrigin))
+                        .append('\t').append(nullToEmpty(entry.allowCredentials)).append('\t').append(entry.freshUntil)
+                        .append('\n');
+            }
+        }
+        File temporary = new File(directory, INDEX_FILE + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            writer.write(lines.toString());
+        } catch (IOException e) {
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        temporary.renameTo(new File(directory, INDEX_FILE));
+    }
+
+    private static String nullToEmpty(String value) {
+        return (value == null ? "" : value.replace('\t', ' ').replace('\n', ' '));
+    }
+
+    private static String emptyToNull(String value) {
+        return (value.isEmpty() ? null : value);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized long getSize() {
+        return totalSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public void appendJson(StringBuilder json) {
+        long served = hits.get() + revalidations.get();
+        long requests = served + misses.get();
+        json.append("{\"hits\":").append(hits.get())
+                .append(",\"revalidated\":").append(revalidations.get())
+                .append(",\"misses\":").append(misses.get())
+                .append(",\"hitRatio\":").append(requests == 0 ? 0 : (double) served / requests)
+                .append(",\"servedBytes\":").append(servedBytes.get())
+                .append(",\"entries\":").append(getEntryCount())
+                .append(",\"size\":").append(getSize()).append('}');
+    }
+
+    // Passes the body to the page and writes it to a temporary file on the way, the entry is only
+    // stored if the page has read the complete body
+    private final class WriteThroughStream extends FilterInputStream {
+        private final HttpURLConnection connection;
+        private final Entry template;
+        private final long expectedLength;
+        private final MessageDigest digest;
+        private File temporary;
+        private OutputStream output;
+        private long length;
+        private boolean isClosed;
+
+        WriteThroughStream(InputStream input, HttpURLConnection connection, Entry template, long expectedLength) {
+            super(input);
+            this.connection = connection;
+            this.template = template;
+            this.expectedLength = expectedLength;
+            MessageDigest sha1;
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            this.digest = sha1;
+            try {
+                temporary = File.createTempFile("body", ".tmp", directory);
+                output = new FileOutputStream(temporary);
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return (count < 0 ? -1 : single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read;
+            try {
+                read = super.read(buffer, offset, count);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            if (read < 0) {
+                commit();
+            } else if (output != null) {
+                try {
+                    output.write(buffer, offset, read);
+                    digest.update(buffer, offset, read);
+                    length += read;
+                } catch (IOException e) {
+                    // Keep serving the page, just do not cache the response
+                    abort();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes would be missing in the cached body
+            abort();
+            return super.skip(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (isClosed) return;
+            isClosed = true;
+            abort();
+            try {
+                super.close();
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void commit() {
+            if (output == null) return;
+            try {
+                output.close();
+            } catch (IOException e) {
+                abort();
+                return;
+            }
+            output = null;
+            if (expectedLength >= 0 && length != expectedLength) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+                return;
+            }
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+            store(template, hash.toString(), temporary, length);
+        }
+
+        private void abort() {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                }
+                output = null;
+            }
+            if (temporary != null && temporary.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.badener.companion_browser.blocking;
+
+// Finds the host of an absolute URL in a single scan over its characters.
+// The host is returned as a range packed into a long, so neither a URL object
+// nor a substring has to be created for every intercepted request.
+public final class UrlHosts {
+    public static final long NO_HOST = -1;
+
+    private UrlHosts() {
+    }
+
+    // Returns the range of the host in the URL or NO_HOST if the URL has no authority
+    public static long find(CharSequence url) {
+        int length = url.length();
+        // Scheme
+        int i = 0;
+        while (i < length && isSchemeChar(url.charAt(i), i == 0)) {
+            i++;
+        }
+        if (i == 0 || i + 2 >= length || url.charAt(i) != ':'
+                || url.charAt(i + 1) != '/' || url.charAt(i + 2) != '/') {
+            return NO_HOST;
+        }
+        int start = i + 3;
+
+        // Authority ends at the path, query or fragment, user info ends at the last '@'
+        int end = start;
+        int portStart = -1;
+        boolean isInBrackets = false;
+        for (; end < length; end++) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#' || c == '\\') {
+                break;
+            } else if (c == '@') {
+                start = end + 1;
+                portStart = -1;
+            } else if (c == '[') {
+                isInBrackets = true;
+            } else if (c == ']') {
+                isInBrackets = false;
+            } else if (c == ':' && !isInBrackets) {
+                portStart = end;
+            }
+        }
+        if (portStart >= start) {
+            end = portStart;
+        }
+        if (start >= end) {
+            return NO_HOST;
+        }
+        return ((long) start << 32) | end;
+    }
+
+    public static int start(long host) {
+        return (int) (host >>> 32);
+    }
+
+    public static int end(long host) {
+        return (int) host;
+    }
+
+    private static boolean isSchemeChar(char c, boolean isFirst) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return true;
+        }
+        return !isFirst && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.');
+    }
+}